@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end compile goal: a clean build, a no-op build over unchanged sources and a build after a single leaf
+ * template changed. The in-JVM file set cache is disabled so that every build really parses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompileBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int files;
+
+    @Param({"1", "4"})
+    public int locales;
+
+    @Param({"0"})
+    public int threads;
+
+    private TemplateCorpus corpus;
+
+    private CompileMojo mojo;
+
+    private int revision;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        corpus = TemplateCorpus.generate(files, locales);
+        mojo = MojoFixture.compile(corpus, threads, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        corpus.delete();
+    }
+
+    @State(Scope.Benchmark)
+    public static class Clean {
+
+        @Setup(Level.Invocation)
+        public void setUp(CompileBenchmark benchmark) throws IOException {
+            FileUtils.deleteDirectory(benchmark.corpus.getBuildDirectory().toFile());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class UpToDate {
+
+        @Setup(Level.Iteration)
+        public void setUp(CompileBenchmark benchmark) throws Exception {
+            benchmark.mojo.execute();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LeafChanged {
+
+        @Setup(Level.Invocation)
+        public void setUp(CompileBenchmark benchmark) throws Exception {
+            benchmark.mojo.execute();
+            // the highest numbered file is never called by any other template
+            benchmark.corpus.touch(benchmark.corpus.getFileCount() - 1, ++benchmark.revision);
+        }
+    }
+
+    @Benchmark
+    public void fullBuild(Clean clean) throws Exception {
+        mojo.execute();
+    }
+
+    @Benchmark
+    public void upToDate(UpToDate upToDate) throws Exception {
+        mojo.execute();
+    }
+
+    @Benchmark
+    public void leafChanged(LeafChanged leafChanged) throws Exception {
+        mojo.execute();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Content digests of the source tree: with an empty stat cache every file is read and hashed, with a cache written
+ * by an earlier build only the attributes are compared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FingerprintBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int files;
+
+    private TemplateCorpus corpus;
+
+    private FileTreeSnapshot snapshot;
+
+    private Path statCacheFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+
+        corpus = TemplateCorpus.generate(files, 0);
+        snapshot = FileTreeSnapshot.scan(corpus.getSources());
+
+        // entries recorded right after the files were written are not trusted, so let the racy window pass first
+        TimeUnit.SECONDS.sleep(3);
+
+        statCacheFile = corpus.getBasedir().resolve("stat-cache");
+        final StatCache cache = StatCache.read(statCacheFile);
+        for (final Path file : snapshot.getFiles()) {
+            cache.getFingerprint(snapshot.getRoot().resolve(file), snapshot.getAttributes(file));
+        }
+        cache.write(statCacheFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        corpus.delete();
+    }
+
+    @Benchmark
+    public void cold(Blackhole blackhole) throws IOException {
+        final StatCache cache = StatCache.read(corpus.getBasedir().resolve("missing-stat-cache"));
+        fingerprint(cache, blackhole);
+    }
+
+    @Benchmark
+    public void warm(Blackhole blackhole) throws IOException {
+        final StatCache cache = StatCache.read(statCacheFile);
+        fingerprint(cache, blackhole);
+        if (cache.getHashedFiles() != 0) {
+            throw new IllegalStateException("Stat cache was not used");
+        }
+    }
+
+    private void fingerprint(StatCache cache, Blackhole blackhole) throws IOException {
+        for (final Path file : snapshot.getFiles()) {
+            blackhole.consume(cache.getFingerprint(snapshot.getRoot().resolve(file), snapshot.getAttributes(file)));
+        }
+    }
+}
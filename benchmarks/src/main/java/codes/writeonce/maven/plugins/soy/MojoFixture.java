@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+
+/**
+ * Configures mojos the way Maven would inject their parameters, without a Maven session.
+ */
+final class MojoFixture {
+
+    private static final Log SILENT_LOG = (Log) Proxy.newProxyInstance(Log.class.getClassLoader(),
+            new Class<?>[]{Log.class}, (proxy, method, args) -> method.getReturnType() == boolean.class ? false : null);
+
+    private MojoFixture() {
+        // empty
+    }
+
+    /**
+     * @param cacheSize size of the in-JVM file set cache in megabytes, 0 disables it so every invocation parses
+     */
+    public static CompileMojo compile(TemplateCorpus corpus, int threads, int cacheSize) throws Exception {
+
+        final CompileMojo mojo = new CompileMojo();
+        configure(mojo, corpus, cacheSize);
+
+        final File buildDirectory = corpus.getBuildDirectory().toFile();
+        set(mojo, "translations", corpus.getTranslations().toFile());
+        set(mojo, "jsOutputDirectory", new File(buildDirectory, "generated-js/soy"));
+        set(mojo, "jsBundleDirectory", new File(buildDirectory, "generated-js/soy-bundles"));
+        set(mojo, "javaOutputDirectory", new File(buildDirectory, "generated-sources/soy"));
+        set(mojo, "javaPackage", "bench.templates");
+        set(mojo, "javaClassNameSource", JavaClassNameSource.SOY_FILE_NAME);
+        set(mojo, "jsOutputCharsetName", "UTF-8");
+        set(mojo, "javaOutputCharsetName", "UTF-8");
+        set(mojo, "threads", threads);
+        set(mojo, "fingerprintMode", FingerprintMode.CONTENT);
+        set(mojo, "execution", new MojoExecution(new MojoDescriptor(), "benchmark"));
+        set(mojo, "buildDirectory", buildDirectory);
+        set(mojo, "markersDirectory", new File(buildDirectory, "soy-maven-plugin-markers"));
+
+        return mojo;
+    }
+
+    public static ExtractMessagesMojo extractMessages(TemplateCorpus corpus, int cacheSize) throws Exception {
+
+        final ExtractMessagesMojo mojo = new ExtractMessagesMojo();
+        configure(mojo, corpus, cacheSize);
+
+        set(mojo, "sourceLocale", "en");
+        set(mojo, "targetLocale", "x0");
+        set(mojo, "outputFile", corpus.getBuildDirectory().resolve("extracted.xlf").toFile());
+        set(mojo, "overwrite", true);
+
+        return mojo;
+    }
+
+    private static void configure(AbstractSoyMojo mojo, TemplateCorpus corpus, int cacheSize) throws Exception {
+
+        final MavenProject project = new MavenProject();
+        project.setFile(corpus.getBasedir().resolve("pom.xml").toFile());
+
+        mojo.setLog(SILENT_LOG);
+        set(mojo, "project", project);
+        set(mojo, "sources", corpus.getSources().toFile());
+        set(mojo, "cacheSize", cacheSize);
+        set(mojo, "libraryClassifier", "soy");
+        set(mojo, "librariesDirectory", corpus.getBuildDirectory().resolve("soy-libraries").toFile());
+    }
+
+    private static void set(AbstractMojo mojo, String name, Object value) throws IllegalAccessException {
+        FieldUtils.writeField(mojo, name, value, true);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import com.google.template.soy.SoyFileSet;
+import com.google.template.soy.msgs.SoyMsgBundle;
+import com.google.template.soy.msgs.restricted.SoyMsg;
+import com.google.template.soy.msgs.restricted.SoyMsgPart;
+import com.google.template.soy.msgs.restricted.SoyMsgRawTextPart;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringEscapeUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Synthetic project with a deterministic template tree: files call templates of lower numbered files, every
+ * template has a message, and every locale gets a complete translation.
+ */
+final class TemplateCorpus {
+
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    private static final int TEMPLATES_PER_FILE = 3;
+
+    private static final int CALLS_PER_FILE = 2;
+
+    private final Path basedir;
+
+    private final int fileCount;
+
+    private TemplateCorpus(Path basedir, int fileCount) {
+        this.basedir = basedir;
+        this.fileCount = fileCount;
+    }
+
+    public static TemplateCorpus generate(int fileCount, int localeCount) throws IOException {
+
+        final Path basedir = Files.createTempDirectory("soy-benchmark-");
+        final TemplateCorpus corpus = new TemplateCorpus(basedir, fileCount);
+        final Random random = new Random(fileCount);
+
+        for (int i = 0; i < fileCount; i++) {
+            write(corpus.getSoyFile(i), corpus.getTemplateSource(i, random));
+        }
+
+        Files.createDirectories(corpus.getTranslations());
+
+        if (localeCount > 0) {
+            final SoyFileSet.Builder builder = SoyFileSet.builder();
+            for (int i = 0; i < fileCount; i++) {
+                builder.add(corpus.getSoyFile(i).toFile());
+            }
+            final SoyMsgBundle messages = builder.build().extractMsgs();
+
+            for (int i = 0; i < localeCount; i++) {
+                final String locale = "x" + i;
+                write(corpus.getTranslations().resolve(locale + ".xlf"), getTranslation(messages, locale));
+            }
+        }
+
+        return corpus;
+    }
+
+    public Path getBasedir() {
+        return basedir;
+    }
+
+    public Path getSources() {
+        return basedir.resolve("src/main/soy");
+    }
+
+    public Path getTranslations() {
+        return basedir.resolve("src/main/i18n");
+    }
+
+    public Path getBuildDirectory() {
+        return basedir.resolve("target");
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public Path getSoyFile(int index) {
+        return getSources().resolve("dir" + index / FILES_PER_DIRECTORY).resolve("file" + index + ".soy");
+    }
+
+    /**
+     * Appends a comment, which changes the file content without changing what it calls.
+     */
+    public void touch(int index, int revision) throws IOException {
+        Files.write(getSoyFile(index), ("// revision " + revision + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+    }
+
+    public void delete() throws IOException {
+        FileUtils.deleteDirectory(basedir.toFile());
+    }
+
+    private String getTemplateSource(int index, Random random) {
+
+        final StringBuilder builder = new StringBuilder();
+        builder.append("{namespace bench.dir").append(index / FILES_PER_DIRECTORY).append(".file").append(index)
+                .append(" autoescape=\"strict\"}\n\n");
+
+        for (int t = 0; t < TEMPLATES_PER_FILE; t++) {
+            builder.append("/**\n * Template ").append(t).append(" of file ").append(index).append(".\n")
+                    .append(" * @param name\n */\n")
+                    .append("{template .template").append(t).append("}\n")
+                    .append("  <div class=\"file").append(index).append("-").append(t).append("\">\n")
+                    .append("    {msg desc=\"Greeting ").append(index).append('.').append(t).append("\"}")
+                    .append("Message ").append(index).append('.').append(t).append(" text{/msg}\n")
+                    .append("    {$name}\n");
+            if (t == 0 && index > 0) {
+                for (int c = 0; c < CALLS_PER_FILE; c++) {
+                    final int callee = random.nextInt(index);
+                    builder.append("    {call bench.dir").append(callee / FILES_PER_DIRECTORY).append(".file")
+                            .append(callee).append(".template1}{param name: $name /}{/call}\n");
+                }
+            }
+            builder.append("  </div>\n{/template}\n\n");
+        }
+
+        return builder.toString();
+    }
+
+    private static String getTranslation(SoyMsgBundle messages, String locale) {
+
+        final StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<xliff version=\"1.2\" xmlns=\"urn:oasis:names:tc:xliff:document:1.2\">\n")
+                .append("  <file original=\"SoyMsgBundle\" datatype=\"x-soy-msg\" xml:space=\"preserve\"")
+                .append(" source-language=\"en\" target-language=\"").append(locale).append("\">\n")
+                .append("    <body>\n");
+
+        for (final SoyMsg message : messages) {
+            final StringBuilder text = new StringBuilder();
+            for (final SoyMsgPart part : message.getParts()) {
+                text.append(((SoyMsgRawTextPart) part).getRawText());
+            }
+            builder.append("      <trans-unit id=\"").append(message.getId()).append("\" datatype=\"html\">\n")
+                    .append("        <target>").append(StringEscapeUtils.escapeXml10("[" + locale + "] " + text))
+                    .append("</target>\n")
+                    .append("      </trans-unit>\n");
+        }
+
+        builder.append("    </body>\n  </file>\n</xliff>\n");
+        return builder.toString();
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -21,49 +21,200 @@ package codes.writeonce.maven.plugins.soy;
 
 import com.google.common.collect.Maps;
 import com.google.template.soy.SoyFileSet;
+import com.google.template.soy.base.internal.SoyFileKind;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
 
 public abstract class AbstractSoyMojo extends AbstractMojo {
 
     protected static final String SOY_EXTENSION = ".soy";
     protected static final String XLIFF_EXTENSION = ".xlf";
 
+    private static final String FILE_SET_KEY_ALGORITHM = "SHA-256";
+
     @Parameter(required = true, defaultValue = "${basedir}/src/main/soy")
     protected File sources;
 
     @Parameter
     private Properties compileTimeGlobals;
 
+    @Parameter(defaultValue = "64", property = "soy.cacheSize")
+    private int cacheSize;
+
+    @Parameter(defaultValue = "0", property = "soy.threads")
+    protected int threads;
+
+    @Parameter(required = true, defaultValue = "soy")
+    private String libraryClassifier;
+
+    @Parameter(required = true, defaultValue = "${project.build.directory}/soy-libraries")
+    protected File librariesDirectory;
+
     @Parameter(required = true, readonly = true, defaultValue = "${project}")
     protected MavenProject project;
 
     protected void process() throws Exception {
         sources = getSafePath(sources);
+        librariesDirectory = getSafePath(librariesDirectory);
+    }
+
+    /**
+     * Template libraries among the project dependencies, extracted under the libraries directory.
+     *
+     * @return entries of the library templates keyed by their absolute paths
+     */
+    protected Map<Path, BuildManifest.SourceEntry> getLibraryEntries() throws IOException {
+        final Map<Path, BuildManifest.SourceEntry> entries = new LinkedHashMap<>();
+        for (final Artifact artifact : project.getArtifacts()) {
+            if (SoyLibrary.TYPE.equals(artifact.getType()) && libraryClassifier.equals(artifact.getClassifier()) &&
+                artifact.getFile() != null) {
+                final Path directory = librariesDirectory.toPath()
+                        .resolve(artifact.getGroupId()).resolve(artifact.getArtifactId());
+                entries.putAll(SoyLibrary.extract(artifact.getFile().toPath(), directory));
+                getLog().debug("Using SOY template library " + artifact);
+            }
+        }
+        return entries;
     }
 
     protected List<Path> getSoyFiles() throws IOException {
+        return getSourceSnapshot().getFiles(SOY_EXTENSION);
+    }
+
+    protected FileTreeSnapshot getSourceSnapshot() throws IOException {
         if (sources.exists()) {
-            return Utils.getFilesFromSubtree(sources.toPath(), SOY_EXTENSION);
+            return scan(sources);
         } else {
             getLog().warn("Source directory does not exist: " + sources);
-            return Collections.emptyList();
+            return FileTreeSnapshot.empty(sources.toPath());
+        }
+    }
+
+    protected FileTreeSnapshot scan(File directory) throws IOException {
+        final FileTreeSnapshot snapshot = FileTreeSnapshot.scan(directory.toPath());
+        for (final Path loop : snapshot.getLoops()) {
+            getLog().warn("Not following symbolic link that loops back to its parent directory: " +
+                          directory.toPath().resolve(loop));
         }
+        return snapshot;
     }
 
     protected File getSafePath(File file) {
         return project.getBasedir().toPath().resolve(file.toPath()).toFile();
     }
 
+    protected Map<String, String> getCompileTimeGlobals() {
+        if (compileTimeGlobals == null) {
+            return Collections.emptyMap();
+        }
+        return new TreeMap<>(Maps.fromProperties(compileTimeGlobals));
+    }
+
+    protected SoyFileSetCache getFileSetCache() {
+        if (cacheSize <= 0) {
+            return SoyFileSetCache.getDisabledInstance();
+        }
+        final SoyFileSetCache cache = SoyFileSetCache.getInstance();
+        cache.requireMaximumWeight(cacheSize * 1024L * 1024L);
+        return cache;
+    }
+
+    /**
+     * @return the given templates followed by the library templates they transitively call into
+     */
+    protected List<Path> getRequiredFiles(List<Path> soyFiles, Map<Path, BuildManifest.SourceEntry> libraryEntries,
+            Map<Path, SoyFileDependencies> dependencies) throws IOException {
+
+        for (final Path soyFile : soyFiles) {
+            dependencies.put(soyFile, SoyFileDependencies.scan(sources.toPath().resolve(soyFile)));
+        }
+        for (final Map.Entry<Path, BuildManifest.SourceEntry> entry : libraryEntries.entrySet()) {
+            dependencies.put(entry.getKey(), entry.getValue().getDependencies());
+        }
+
+        final Set<Path> requiredLibraryFiles = new DependencyGraph(dependencies).getDependenciesClosure(soyFiles);
+        requiredLibraryFiles.removeAll(soyFiles);
+
+        final List<Path> files = new ArrayList<>(soyFiles);
+        files.addAll(DependencyGraph.ordered(requiredLibraryFiles, dependencies.keySet()));
+        return files;
+    }
+
+    protected String getFileSetKey(Collection<Path> soyFiles, Collection<Path> dependencyFiles,
+            Map<Path, String> fingerprints) throws NoSuchAlgorithmException {
+
+        final MessageDigest md = MessageDigest.getInstance(FILE_SET_KEY_ALGORITHM);
+
+        for (final Path soyFilePath : soyFiles) {
+            updateFileSetKey(md, "src");
+            updateFileSetKey(md, getFileSetKeyName(soyFilePath));
+            updateFileSetKey(md, fingerprints.get(soyFilePath));
+        }
+
+        for (final Path soyFilePath : dependencyFiles) {
+            updateFileSetKey(md, "dep");
+            updateFileSetKey(md, getFileSetKeyName(soyFilePath));
+            updateFileSetKey(md, fingerprints.get(soyFilePath));
+        }
+
+        for (final Map.Entry<String, String> entry : getCompileTimeGlobals().entrySet()) {
+            updateFileSetKey(md, "global");
+            updateFileSetKey(md, entry.getKey());
+            updateFileSetKey(md, entry.getValue());
+        }
+
+        return Hex.encodeHexString(md.digest());
+    }
+
+    /**
+     * @return what tells a template apart from others with the same fingerprint in the file set key
+     */
+    protected String getFileSetKeyName(Path soyFilePath) {
+        return sources.toPath().resolve(soyFilePath).toString();
+    }
+
+    protected Map<Path, String> getContentFingerprints(Collection<Path> soyFiles) throws IOException {
+        final StatCache statCache = new StatCache();
+        final Map<Path, String> fingerprints = new HashMap<>();
+        for (final Path soyFilePath : soyFiles) {
+            fingerprints.put(soyFilePath, statCache.getFingerprint(sources.toPath().resolve(soyFilePath)));
+        }
+        return fingerprints;
+    }
+
+    private static void updateFileSetKey(MessageDigest md, String value) {
+        md.update(value.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+    }
+
     protected SoyFileSet getSoyFileSet(List<Path> soyFiles) {
+        return getSoyFileSet(soyFiles, Collections.emptyList());
+    }
+
+    /**
+     * Only the source files are compiled into output; the dependency files are parsed to resolve and check calls.
+     */
+    protected SoyFileSet getSoyFileSet(Collection<Path> soyFiles, Collection<Path> dependencyFiles) {
 
         final SoyFileSet.Builder soyFileSetBuilder = SoyFileSet.builder();
 
@@ -75,6 +226,10 @@ public abstract class AbstractSoyMojo extends AbstractMojo {
             soyFileSetBuilder.add(sources.toPath().resolve(soyFilePath).toFile());
         }
 
+        for (final Path soyFilePath : dependencyFiles) {
+            soyFileSetBuilder.addWithKind(sources.toPath().resolve(soyFilePath).toFile(), SoyFileKind.DEP);
+        }
+
         return soyFileSetBuilder.build();
     }
 }
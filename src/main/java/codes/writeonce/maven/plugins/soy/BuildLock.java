@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Exclusive lock on a lock file, held by one build at a time. File locks are held on behalf of the whole JVM, so
+ * builds running in the same JVM, such as modules of a parallel reactor build, are also serialized on a lock object
+ * of their own. The lock file is never deleted, as that would let two builds lock different files of the same name.
+ */
+final class BuildLock implements AutoCloseable {
+
+    private static final ConcurrentMap<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+    private final ReentrantLock localLock;
+
+    private final FileChannel channel;
+
+    private final FileLock fileLock;
+
+    private BuildLock(ReentrantLock localLock, FileChannel channel, FileLock fileLock) {
+        this.localLock = localLock;
+        this.channel = channel;
+        this.fileLock = fileLock;
+    }
+
+    /**
+     * @return the lock, or {@code null} if another build holds it
+     */
+    public static BuildLock tryAcquire(Path file) throws IOException {
+
+        final ReentrantLock localLock = getLocalLock(file);
+        if (!localLock.tryLock()) {
+            return null;
+        }
+
+        try {
+            final FileChannel channel = open(file);
+            try {
+                final FileLock fileLock = channel.tryLock();
+                if (fileLock == null) {
+                    channel.close();
+                    localLock.unlock();
+                    return null;
+                }
+                return new BuildLock(localLock, channel, fileLock);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            localLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until no other build holds the lock.
+     */
+    public static BuildLock acquire(Path file) throws IOException {
+
+        final ReentrantLock localLock = getLocalLock(file);
+        localLock.lock();
+
+        try {
+            final FileChannel channel = open(file);
+            try {
+                return new BuildLock(localLock, channel, channel.lock());
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            localLock.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            fileLock.release();
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                localLock.unlock();
+            }
+        }
+    }
+
+    private static ReentrantLock getLocalLock(Path file) {
+        return LOCAL_LOCKS.computeIfAbsent(file.toAbsolutePath().normalize(), k -> new ReentrantLock());
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        return FileChannel.open(file, WRITE, CREATE);
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Persistent record of the last build: fingerprints of every input, the dependencies of every template and the
+ * outputs each template produced.
+ */
+final class BuildManifest {
+
+    private static final String HEADER = "soy-maven-plugin-manifest 2";
+
+    private static final Charset MANIFEST_CHARSET = Charset.forName("UTF-8");
+
+    private final String optionsDigest;
+
+    private String sourceDigest = "";
+
+    private final Map<Path, String> translations = new LinkedHashMap<>();
+
+    private final Map<Path, SourceEntry> sources = new LinkedHashMap<>();
+
+    private final Map<Path, OutputEntry> outputs = new TreeMap<>();
+
+    public BuildManifest(String optionsDigest) {
+        this.optionsDigest = optionsDigest;
+    }
+
+    public String getOptionsDigest() {
+        return optionsDigest;
+    }
+
+    public String getSourceDigest() {
+        return sourceDigest;
+    }
+
+    public void setSourceDigest(String sourceDigest) {
+        this.sourceDigest = sourceDigest;
+    }
+
+    public Map<Path, String> getTranslations() {
+        return translations;
+    }
+
+    public Map<Path, SourceEntry> getSources() {
+        return sources;
+    }
+
+    /**
+     * @return generated files, relative to the project base directory
+     */
+    public Map<Path, OutputEntry> getOutputs() {
+        return outputs;
+    }
+
+    public static BuildManifest read(Path path) throws IOException {
+
+        final FileSystem fileSystem = path.getFileSystem();
+
+        try (FileInputStream in = new FileInputStream(path.toFile());
+             InputStreamReader inputStreamReader = new InputStreamReader(in, MANIFEST_CHARSET);
+             BufferedReader reader = new BufferedReader(inputStreamReader)) {
+
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Unsupported build manifest format: " + path);
+            }
+
+            BuildManifest manifest = null;
+            SourceEntry source = null;
+            String namespace = "";
+            Set<String> calledNamespaces = null;
+            Set<String> delcalls = null;
+            Set<String> deltemplates = null;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int separator = line.indexOf(' ');
+                if (separator < 0) {
+                    throw new IOException("Malformed build manifest line: " + line);
+                }
+                final String key = line.substring(0, separator);
+                final String value = line.substring(separator + 1);
+                switch (key) {
+                    case "options":
+                        manifest = new BuildManifest(value);
+                        break;
+                    case "source-digest":
+                        requireManifest(manifest, path).sourceDigest = value;
+                        break;
+                    case "output": {
+                        final String[] fields = value.split("\t", 3);
+                        if (fields.length != 3) {
+                            throw new IOException("Malformed build manifest line: " + line);
+                        }
+                        requireManifest(manifest, path).outputs.put(fileSystem.getPath(fields[2]),
+                                new OutputEntry(Long.parseLong(fields[0]), Long.parseLong(fields[1])));
+                        break;
+                    }
+                    case "translation": {
+                        final int tab = value.indexOf('\t');
+                        requireManifest(manifest, path).translations.put(
+                                fileSystem.getPath(value.substring(tab + 1)), value.substring(0, tab));
+                        break;
+                    }
+                    case "source": {
+                        if (source != null) {
+                            source.dependencies =
+                                    new SoyFileDependencies(namespace, calledNamespaces, delcalls, deltemplates);
+                        }
+                        final int tab = value.indexOf('\t');
+                        source = new SourceEntry(value.substring(0, tab), null);
+                        namespace = "";
+                        calledNamespaces = new TreeSet<>();
+                        delcalls = new TreeSet<>();
+                        deltemplates = new TreeSet<>();
+                        requireManifest(manifest, path).sources.put(fileSystem.getPath(value.substring(tab + 1)),
+                                source);
+                        break;
+                    }
+                    case "namespace":
+                        requireSource(source, path);
+                        namespace = value;
+                        break;
+                    case "calls":
+                        requireSource(source, path);
+                        calledNamespaces.add(value);
+                        break;
+                    case "delcall":
+                        requireSource(source, path);
+                        delcalls.add(value);
+                        break;
+                    case "deltemplate":
+                        requireSource(source, path);
+                        deltemplates.add(value);
+                        break;
+                    case "java-output":
+                        requireSource(source, path).javaOutputs.add(fileSystem.getPath(value));
+                        break;
+                    default:
+                        throw new IOException("Unknown build manifest entry: " + key);
+                }
+            }
+
+            if (source != null) {
+                source.dependencies = new SoyFileDependencies(namespace, calledNamespaces, delcalls, deltemplates);
+            }
+
+            return requireManifest(manifest, path);
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        Utils.writeAtomically(path, this::writeTo);
+    }
+
+    private void writeTo(Path path) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(path.toFile());
+             OutputStreamWriter outputStreamWriter = new OutputStreamWriter(out, MANIFEST_CHARSET);
+             BufferedWriter writer = new BufferedWriter(outputStreamWriter)) {
+
+            writeLine(writer, HEADER);
+            writeLine(writer, "options " + optionsDigest);
+            writeLine(writer, "source-digest " + sourceDigest);
+
+            for (final Map.Entry<Path, String> entry : translations.entrySet()) {
+                writeLine(writer, "translation " + entry.getValue() + "\t" + entry.getKey());
+            }
+
+            for (final Map.Entry<Path, SourceEntry> entry : sources.entrySet()) {
+                final SourceEntry source = entry.getValue();
+                final SoyFileDependencies dependencies = source.getDependencies();
+                writeLine(writer, "source " + source.getFingerprint() + "\t" + entry.getKey());
+                writeLine(writer, "namespace " + dependencies.getNamespace());
+                for (final String calledNamespace : dependencies.getCalledNamespaces()) {
+                    writeLine(writer, "calls " + calledNamespace);
+                }
+                for (final String delcall : dependencies.getDelcalls()) {
+                    writeLine(writer, "delcall " + delcall);
+                }
+                for (final String deltemplate : dependencies.getDeltemplates()) {
+                    writeLine(writer, "deltemplate " + deltemplate);
+                }
+                for (final Path javaOutput : source.getJavaOutputs()) {
+                    writeLine(writer, "java-output " + javaOutput);
+                }
+            }
+
+            for (final Map.Entry<Path, OutputEntry> entry : outputs.entrySet()) {
+                final OutputEntry output = entry.getValue();
+                writeLine(writer, "output " + output.getSize() + "\t" + output.getModifiedMillis() + "\t" +
+                                  entry.getKey());
+            }
+        }
+    }
+
+    private static void writeLine(BufferedWriter writer, String line) throws IOException {
+        writer.write(line);
+        writer.newLine();
+    }
+
+    private static BuildManifest requireManifest(BuildManifest manifest, Path path) throws IOException {
+        if (manifest == null) {
+            throw new IOException("Build manifest has no options entry: " + path);
+        }
+        return manifest;
+    }
+
+    private static SourceEntry requireSource(SourceEntry source, Path path) throws IOException {
+        if (source == null) {
+            throw new IOException("Build manifest has a template property outside of a source entry: " + path);
+        }
+        return source;
+    }
+
+    public static final class SourceEntry {
+
+        private final String fingerprint;
+
+        private SoyFileDependencies dependencies;
+
+        private final List<Path> javaOutputs = new ArrayList<>();
+
+        public SourceEntry(String fingerprint, SoyFileDependencies dependencies) {
+            this.fingerprint = fingerprint;
+            this.dependencies = dependencies;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public SoyFileDependencies getDependencies() {
+            return dependencies;
+        }
+
+        public List<Path> getJavaOutputs() {
+            return Collections.unmodifiableList(javaOutputs);
+        }
+
+        public void setJavaOutputs(List<Path> javaOutputs) {
+            this.javaOutputs.clear();
+            this.javaOutputs.addAll(javaOutputs);
+        }
+    }
+
+    public static final class OutputEntry {
+
+        private final long size;
+
+        private final long modifiedMillis;
+
+        public OutputEntry(long size, long modifiedMillis) {
+            this.size = size;
+            this.modifiedMillis = modifiedMillis;
+        }
+
+        public static OutputEntry of(Path file) throws IOException {
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new OutputEntry(attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModifiedMillis() {
+            return modifiedMillis;
+        }
+
+        public boolean matches(Path file) {
+            try {
+                final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                return attributes.isRegularFile() && attributes.size() == size &&
+                       attributes.lastModifiedTime().toMillis() == modifiedMillis;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
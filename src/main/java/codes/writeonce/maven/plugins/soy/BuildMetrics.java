@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-phase timings and counters of a single plugin execution.
+ * <p>
+ * Peak heap is tracked through the heap memory pools, whose peaks are process wide, so it is only recorded for
+ * top-level phases, which never overlap. Phases running in parallel, e.g. one per locale, record only their time.
+ */
+final class BuildMetrics {
+
+    private final long started = System.nanoTime();
+
+    private final List<PhaseRecord> phases = new CopyOnWriteArrayList<>();
+
+    private final Map<String, AtomicLong> counters = new ConcurrentSkipListMap<>();
+
+    public Phase startPhase(String name) {
+        resetHeapPeaks();
+        return new Phase(name, true);
+    }
+
+    public Phase startParallelPhase(String name) {
+        return new Phase(name, false);
+    }
+
+    public void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public void add(String counter, long delta) {
+        counters.computeIfAbsent(counter, k -> new AtomicLong()).addAndGet(delta);
+    }
+
+    public long get(String counter) {
+        final AtomicLong value = counters.get(counter);
+        return value == null ? 0 : value.get();
+    }
+
+    public void write(Path file, String executionId) throws IOException {
+
+        Files.createDirectories(file.getParent());
+
+        try (FileOutputStream out = new FileOutputStream(file.toFile());
+             JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+
+            writer.beginObject();
+            writer.name("executionId").value(executionId);
+            writer.name("totalMillis").value(toMillis(System.nanoTime() - started));
+
+            writer.name("phases").beginArray();
+            for (final PhaseRecord phase : phases) {
+                writer.beginObject();
+                writer.name("name").value(phase.name);
+                writer.name("millis").value(toMillis(phase.nanos));
+                if (phase.peakHeapBytes >= 0) {
+                    writer.name("peakHeapBytes").value(phase.peakHeapBytes);
+                }
+                writer.endObject();
+            }
+            writer.endArray();
+
+            writer.name("counters").beginObject();
+            for (final Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+                writer.name(entry.getKey()).value(entry.getValue().get());
+            }
+            writer.endObject();
+
+            writer.endObject();
+        }
+    }
+
+    public String getSummary() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("SOY build took ").append(toMillis(System.nanoTime() - started)).append(" ms:");
+        for (final PhaseRecord phase : phases) {
+            if (phase.peakHeapBytes >= 0) {
+                builder.append(' ').append(phase.name).append('=').append(toMillis(phase.nanos)).append("ms");
+            }
+        }
+        for (final Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            builder.append(' ').append(entry.getKey()).append('=').append(entry.getValue().get());
+        }
+        return builder.toString();
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static List<MemoryPoolMXBean> getHeapPools() {
+        final List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    private static void resetHeapPeaks() {
+        for (final MemoryPoolMXBean pool : getHeapPools()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    private static long getHeapPeak() {
+        long peak = 0;
+        for (final MemoryPoolMXBean pool : getHeapPools()) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    public final class Phase implements AutoCloseable {
+
+        private final String name;
+
+        private final boolean trackHeap;
+
+        private final long phaseStarted = System.nanoTime();
+
+        private Phase(String name, boolean trackHeap) {
+            this.name = name;
+            this.trackHeap = trackHeap;
+        }
+
+        @Override
+        public void close() {
+            phases.add(new PhaseRecord(name, System.nanoTime() - phaseStarted, trackHeap ? getHeapPeak() : -1));
+        }
+    }
+
+    private static final class PhaseRecord {
+
+        private final String name;
+
+        private final long nanos;
+
+        private final long peakHeapBytes;
+
+        private PhaseRecord(String name, long nanos, long peakHeapBytes) {
+            this.name = name;
+            this.nanos = nanos;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hashes of the compiled JS each compacted output was produced from, keyed by the output path relative to the
+ * project, so that an output whose compiled JS did not change is not compacted again.
+ */
+final class CompactionIndex {
+
+    private static final String HEADER = "soy-maven-plugin-compaction 1";
+
+    private static final Charset INDEX_CHARSET = Charset.forName("UTF-8");
+
+    private final String key;
+
+    private final Map<Path, String> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * @param key digest of the compaction settings, an index written with a different key is discarded
+     */
+    public CompactionIndex(String key) {
+        this.key = key;
+    }
+
+    public static CompactionIndex read(Path path, String key) throws IOException {
+
+        final CompactionIndex index = new CompactionIndex(key);
+
+        if (!Files.exists(path)) {
+            return index;
+        }
+
+        try (FileInputStream in = new FileInputStream(path.toFile());
+             InputStreamReader inputStreamReader = new InputStreamReader(in, INDEX_CHARSET);
+             BufferedReader reader = new BufferedReader(inputStreamReader)) {
+
+            if (!HEADER.equals(reader.readLine()) || !key.equals(reader.readLine())) {
+                return index;
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    throw new IOException("Malformed compaction index line: " + line);
+                }
+                index.hashes.put(Paths.get(line.substring(tab + 1)), line.substring(0, tab));
+            }
+        }
+
+        return index;
+    }
+
+    public void write(Path path) throws IOException {
+        Utils.writeAtomically(path, this::writeTo);
+    }
+
+    private void writeTo(Path path) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(path.toFile());
+             OutputStreamWriter outputStreamWriter = new OutputStreamWriter(out, INDEX_CHARSET);
+             BufferedWriter writer = new BufferedWriter(outputStreamWriter)) {
+
+            writer.write(HEADER);
+            writer.newLine();
+            writer.write(key);
+            writer.newLine();
+
+            for (final Map.Entry<Path, String> entry : hashes.entrySet()) {
+                writer.write(entry.getValue() + "\t" + entry.getKey());
+                writer.newLine();
+            }
+        }
+    }
+
+    public String get(Path output) {
+        return hashes.get(output);
+    }
+
+    public void put(Path output, String hash) {
+        hashes.put(output, hash);
+    }
+
+    public void remove(Path output) {
+        hashes.remove(output);
+    }
+}
@@ -20,6 +20,7 @@
 package codes.writeonce.maven.plugins.soy;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
 import com.google.common.primitives.Longs;
 import com.google.template.soy.SoyFileSet;
 import com.google.template.soy.SoyFileSetAccessor;
@@ -27,43 +28,66 @@ import com.google.template.soy.jssrc.SoyJsSrcOptions;
 import com.google.template.soy.msgs.SoyMsgBundle;
 import com.google.template.soy.msgs.SoyMsgBundleHandler;
 import com.google.template.soy.xliffmsgplugin.XliffMsgPlugin;
-import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static org.apache.maven.plugins.annotations.LifecyclePhase.GENERATE_RESOURCES;
 
-@Mojo(name = "compile", defaultPhase = GENERATE_RESOURCES)
+@Mojo(name = "compile", defaultPhase = GENERATE_RESOURCES, requiresDependencyResolution = ResolutionScope.COMPILE)
 public class CompileMojo extends AbstractSoyMojo {
 
     private static final String JS_EXTENSION = ".js";
+    private static final String RAW_JS_EXTENSION = ".src.js";
+    private static final String SOURCE_MAP_EXTENSION = ".map";
+    private static final String STAT_CACHE_EXTENSION = ".stat";
+    private static final String TRANSLATION_CACHE_EXTENSION = ".translations";
+    private static final String COMPACTION_INDEX_EXTENSION = ".compaction";
+    private static final String LOCK_EXTENSION = ".lock";
+    private static final String INTERRUPTED_EXTENSION = ".interrupted";
+
+    private static final String JS_OUTPUT_TREE = "js";
+    private static final String JAVA_OUTPUT_TREE = "java";
+    private static final String JS_BUNDLE_TREE = "bundles";
 
     private static final String DIGEST_ALGORITHM = "SHA-256";
     private static final Charset TEXT_DIGEST_CHARSET = Charset.forName("UTF-8");
@@ -92,6 +116,39 @@ public class CompileMojo extends AbstractSoyMojo {
     @Parameter
     private SoyJsSrcOptions jsSrcOptions;
 
+    @Parameter(property = "soy.entryPoints")
+    private List<String> entryPoints;
+
+    @Parameter(defaultValue = "false", property = "soy.jsBundle")
+    private boolean jsBundle;
+
+    @Parameter(defaultValue = "0", property = "soy.jsBundleSize")
+    private int jsBundleSize;
+
+    @Parameter(required = true, defaultValue = "${project.build.directory}/generated-js/soy-bundles")
+    private File jsBundleDirectory;
+
+    @Parameter(defaultValue = "false", property = "soy.jsCompact")
+    private boolean jsCompact;
+
+    @Parameter(defaultValue = "false", property = "soy.jsSourceMaps")
+    private boolean jsSourceMaps;
+
+    @Parameter(property = "soy.jsCompressions")
+    private List<String> jsCompressions;
+
+    @Parameter(required = true, defaultValue = "CONTENT", property = "soy.fingerprintMode")
+    private FingerprintMode fingerprintMode;
+
+    @Parameter(defaultValue = "0", property = "soy.shardSize")
+    private int shardSize;
+
+    @Parameter(property = "soy.outputCache.directory")
+    private File outputCacheDirectory;
+
+    @Parameter(defaultValue = "1024", property = "soy.outputCache.size")
+    private int outputCacheSize;
+
     @Parameter(required = true, readonly = true, defaultValue = "${session}")
     protected MavenSession session;
 
@@ -104,6 +161,31 @@ public class CompileMojo extends AbstractSoyMojo {
     @Parameter(required = true, defaultValue = "${project.build.directory}/soy-maven-plugin-markers")
     private File markersDirectory;
 
+    private StatCache statCache;
+
+    private TranslationCache translationCache;
+
+    private CompactionIndex compactionIndex;
+
+    private Map<Path, BuildManifest.OutputEntry> previousOutputs;
+
+    private final Set<Path> writtenOutputs = ConcurrentHashMap.newKeySet();
+
+    private final Set<Path> deletedOutputs = ConcurrentHashMap.newKeySet();
+
+    private final Set<Path> uncompressedOutputs = ConcurrentHashMap.newKeySet();
+
+    private List<OutputCompressor> compressors;
+
+    private Path interruptedMarkerPath;
+
+    private volatile boolean outputsChanging;
+
+    @Parameter(defaultValue = "false", property = "soy.logMetrics")
+    private boolean logMetrics;
+
+    private BuildMetrics metrics;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         try {
@@ -124,55 +206,1030 @@ public class CompileMojo extends AbstractSoyMojo {
         translations = getSafePath(translations);
         jsOutputDirectory = getSafePath(jsOutputDirectory);
         javaOutputDirectory = getSafePath(javaOutputDirectory);
+        jsBundleDirectory = getSafePath(jsBundleDirectory);
         buildDirectory = getSafePath(buildDirectory);
         markersDirectory = getSafePath(markersDirectory);
+        if (outputCacheDirectory != null) {
+            outputCacheDirectory = getSafePath(outputCacheDirectory);
+        }
+
+        writtenOutputs.clear();
+        deletedOutputs.clear();
+        uncompressedOutputs.clear();
+        compressors = getCompressors();
+        metrics = new BuildMetrics();
+
+        final Path statusFilePath = getStatusFilePath();
+        interruptedMarkerPath = Utils.addSuffix(statusFilePath, INTERRUPTED_EXTENSION);
+        outputsChanging = false;
 
-        final List<Path> soyFiles = getSoyFiles();
-        final List<Path> xliffFiles = getXliffFiles();
+        try (BuildLock ignored = lockBuild(Utils.addSuffix(statusFilePath, LOCK_EXTENSION))) {
+            deleteTempFiles(statusFilePath);
+            build(statusFilePath);
+        } finally {
+            writeMetrics();
+        }
+
+        project.addCompileSourceRoot(javaOutputDirectory.getPath());
+    }
+
+    private void build(Path statusFilePath) throws Exception {
+
+        final FileTreeSnapshot sourceSnapshot;
+        final FileTreeSnapshot translationSnapshot;
+
+        try (BuildMetrics.Phase ignored = metrics.startPhase("scan")) {
+            sourceSnapshot = getSourceSnapshot();
+            translationSnapshot = getTranslationSnapshot();
+        }
+
+        final List<Path> soyFiles = sourceSnapshot.getFiles(SOY_EXTENSION);
+        final List<Path> xliffFiles = translationSnapshot.getFiles(XLIFF_EXTENSION);
+
+        metrics.add("templatesScanned", soyFiles.size());
+        metrics.add("translationsScanned", xliffFiles.size());
+
+        final Path statCacheFilePath = Utils.addSuffix(statusFilePath, STAT_CACHE_EXTENSION);
+        translationCache = new TranslationCache(Utils.addSuffix(statusFilePath, TRANSLATION_CACHE_EXTENSION));
+
+        final Map<Path, String> sourceFingerprints;
+        final Map<Path, String> translationFingerprints;
+
+        try (BuildMetrics.Phase ignored = metrics.startPhase("fingerprint")) {
+            if (fingerprintMode == FingerprintMode.CONTENT) {
+                statCache = readStatCache(statCacheFilePath);
+            }
+            sourceFingerprints = getFingerprints(sourceSnapshot, soyFiles);
+            translationFingerprints = getFingerprints(translationSnapshot, xliffFiles);
+        }
+
+        if (statCache != null) {
+            metrics.add("filesHashed", statCache.getHashedFiles());
+            metrics.add("bytesHashed", statCache.getHashedBytes());
+        }
+
+        final Map<Path, BuildManifest.SourceEntry> libraryEntries;
+
+        try (BuildMetrics.Phase ignored = metrics.startPhase("libraries")) {
+            libraryEntries = getLibraryEntries();
+        }
+
+        for (final Map.Entry<Path, BuildManifest.SourceEntry> entry : libraryEntries.entrySet()) {
+            sourceFingerprints.put(entry.getKey(), entry.getValue().getFingerprint());
+        }
+
+        final byte[] sourceDigestBytes = getSourceDigestBytes(sourceFingerprints, translationFingerprints);
 
-        final byte[] sourceDigestBytes = getSourceDigestBytes(soyFiles, xliffFiles);
+        final Path compactionIndexPath = Utils.addSuffix(statusFilePath, COMPACTION_INDEX_EXTENSION);
+        compactionIndex = jsCompact ? readCompactionIndex(compactionIndexPath) : null;
 
-        final boolean changed = isChanged(sourceDigestBytes);
+        final BuildManifest previousManifest;
+        final boolean changed;
+
+        try (BuildMetrics.Phase ignored = metrics.startPhase("up-to-date-check")) {
+            previousManifest = readPreviousManifest(statusFilePath);
+            changed = isChanged(previousManifest, sourceDigestBytes);
+        }
 
         if (changed) {
             getLog().info("Generating JS and Java code from SOY templates.");
-            generateJs(soyFiles, xliffFiles, sourceDigestBytes);
+
+            final String outputCacheKey;
+            BuildManifest baseManifest = previousManifest;
+            boolean restored = false;
+
+            if (outputCacheDirectory == null) {
+                outputCacheKey = null;
+            } else {
+                outputCacheKey = getOutputCacheKey(soyFiles, xliffFiles, libraryEntries, sourceFingerprints,
+                        translationFingerprints);
+                try (BuildMetrics.Phase ignored = metrics.startPhase("output-cache-restore")) {
+                    restored = restoreOutputs(outputCacheKey, soyFiles, libraryEntries, sourceFingerprints,
+                            translationFingerprints, sourceDigestBytes, statusFilePath);
+                } catch (IOException | RuntimeException e) {
+                    getLog().warn("Ignoring unusable output cache entry: " + e.getMessage());
+                    writtenOutputs.clear();
+                    deletedOutputs.clear();
+                    baseManifest = null;
+                }
+            }
+
+            if (!restored) {
+                generate(soyFiles, libraryEntries, xliffFiles, sourceFingerprints, translationFingerprints,
+                        sourceDigestBytes, baseManifest, statusFilePath);
+                if (outputCacheKey != null) {
+                    try (BuildMetrics.Phase ignored = metrics.startPhase("output-cache-store")) {
+                        storeOutputs(outputCacheKey, statusFilePath);
+                    }
+                }
+            }
+            if (compactionIndex != null) {
+                compactionIndex.write(compactionIndexPath);
+            }
+            Files.deleteIfExists(interruptedMarkerPath);
         } else {
             getLog().info("No changes detected. No JS or Java code generated from SOY templates.");
         }
 
-        project.addCompileSourceRoot(javaOutputDirectory.getPath());
+        if (statCache != null) {
+            Files.createDirectories(statCacheFilePath.getParent());
+            statCache.write(statCacheFilePath);
+        }
+    }
+
+    /**
+     * Serializes builds sharing the build manifest, whether they run in this JVM or in another process.
+     */
+    private BuildLock lockBuild(Path lockFilePath) throws IOException {
+
+        final BuildLock lock = BuildLock.tryAcquire(lockFilePath);
+        if (lock != null) {
+            return lock;
+        }
+
+        getLog().info("Waiting for another build of the same templates to finish: " + lockFilePath);
+        try (BuildMetrics.Phase ignored = metrics.startPhase("lock-wait")) {
+            return BuildLock.acquire(lockFilePath);
+        }
+    }
+
+    /**
+     * Deletes temporary files left next to the build manifest and its caches by an interrupted build.
+     */
+    private static void deleteTempFiles(Path statusFilePath) throws IOException {
+
+        final Path directory = statusFilePath.getParent();
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                "." + statusFilePath.getFileName() + "*" + Utils.TEMP_SUFFIX)) {
+            for (final Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Records that outputs are about to change, so that if the build does not complete they are all regenerated by
+     * the next one instead of being trusted to match the previous build manifest.
+     */
+    private void markOutputsChanging() throws IOException {
+        if (!outputsChanging) {
+            synchronized (this) {
+                if (!outputsChanging) {
+                    Files.createDirectories(interruptedMarkerPath.getParent());
+                    Files.write(interruptedMarkerPath, new byte[0]);
+                    outputsChanging = true;
+                }
+            }
+        }
     }
 
-    private void generateJs(List<Path> soyFiles, List<Path> xliffFiles, byte[] sourceDigestBytes)
+    /**
+     * Failures are only logged, as the report is written in a finally block and must not hide a build failure.
+     */
+    private void writeMetrics() {
+
+        final String executionId = execution.getExecutionId();
+        final Path reportFile = buildDirectory.toPath().resolve("soy-maven-plugin-metrics-" + executionId + ".json");
+        try {
+            metrics.write(reportFile, executionId);
+        } catch (IOException | RuntimeException e) {
+            getLog().warn("Cannot write build metrics: " + reportFile, e);
+        }
+
+        if (logMetrics) {
+            getLog().info(metrics.getSummary());
+        }
+    }
+
+    private void generate(List<Path> sourceFiles, Map<Path, BuildManifest.SourceEntry> libraryEntries,
+            List<Path> xliffFiles, Map<Path, String> sourceFingerprints, Map<Path, String> translationFingerprints,
+            byte[] sourceDigestBytes, BuildManifest previousManifest, Path statusFilePath)
             throws IOException, NoSuchAlgorithmException {
 
-        final Path outputRootPath = jsOutputDirectory.toPath();
+        final Path sourceRootPath = sources.toPath();
 
-        FileUtils.deleteDirectory(jsOutputDirectory);
-        Files.createDirectories(outputRootPath);
+        final BuildManifest manifest = new BuildManifest(getOptionsDigest());
+        manifest.getTranslations().putAll(translationFingerprints);
 
-        FileUtils.deleteDirectory(javaOutputDirectory);
+        final Map<Path, BuildManifest.SourceEntry> previousSources =
+                previousManifest == null ? Collections.emptyMap() : previousManifest.getSources();
+        previousOutputs = previousManifest == null ? Collections.emptyMap() : previousManifest.getOutputs();
 
-        final Path javaSourceOutputPath = getJavaSourceOutputPath();
-        Files.createDirectories(javaSourceOutputPath);
+        final Set<Path> changedFiles = new LinkedHashSet<>();
+        final Map<Path, BuildManifest.SourceEntry> sourceEntries = new LinkedHashMap<>();
+        final Map<Path, SoyFileDependencies> dependencies = new LinkedHashMap<>();
+
+        final BuildMetrics.Phase analyzePhase = metrics.startPhase("analyze");
+
+        for (final Path soyFilePath : sourceFiles) {
+            final String fingerprint = sourceFingerprints.get(soyFilePath);
+            final BuildManifest.SourceEntry previousEntry = previousSources.get(soyFilePath);
+            final BuildManifest.SourceEntry entry;
+            if (previousEntry != null && previousEntry.getFingerprint().equals(fingerprint)) {
+                entry = previousEntry;
+            } else {
+                entry = new BuildManifest.SourceEntry(fingerprint,
+                        SoyFileDependencies.scan(sourceRootPath.resolve(soyFilePath)));
+                if (previousEntry != null) {
+                    entry.setJavaOutputs(previousEntry.getJavaOutputs());
+                }
+                changedFiles.add(soyFilePath);
+            }
+            sourceEntries.put(soyFilePath, entry);
+            dependencies.put(soyFilePath, entry.getDependencies());
+        }
+
+        // unreachable templates are left out of the manifest, as if deleted, so they get compiled once reachable
+        final List<Path> soyFiles;
+        if (entryPoints == null || entryPoints.isEmpty()) {
+            soyFiles = sourceFiles;
+        } else {
+            final Set<Path> reachableFiles = getReachableFiles(new DependencyGraph(dependencies));
+            soyFiles = DependencyGraph.ordered(reachableFiles, sourceFiles);
+            for (final Path soyFilePath : sourceFiles) {
+                if (!reachableFiles.contains(soyFilePath)) {
+                    dependencies.remove(soyFilePath);
+                    changedFiles.remove(soyFilePath);
+                }
+            }
+            getLog().info(soyFiles.size() + " of " + sourceFiles.size() + " SOY templates are reachable from " +
+                          entryPoints.size() + " entry points.");
+            metrics.add("templatesUnreachable", sourceFiles.size() - soyFiles.size());
+        }
+
+        for (final Path soyFilePath : soyFiles) {
+            manifest.getSources().put(soyFilePath, sourceEntries.get(soyFilePath));
+        }
+
+        for (final Map.Entry<Path, BuildManifest.SourceEntry> libraryEntry : libraryEntries.entrySet()) {
+            final Path libraryFilePath = libraryEntry.getKey();
+            final BuildManifest.SourceEntry previousEntry = previousSources.get(libraryFilePath);
+            if (previousEntry == null ||
+                !previousEntry.getFingerprint().equals(libraryEntry.getValue().getFingerprint())) {
+                changedFiles.add(libraryFilePath);
+            }
+            manifest.getSources().put(libraryFilePath, libraryEntry.getValue());
+            dependencies.put(libraryFilePath, libraryEntry.getValue().getDependencies());
+        }
+
+        final List<Path> allFiles = new ArrayList<>(dependencies.keySet());
+        final DependencyGraph graph = new DependencyGraph(dependencies);
+
+        // library templates are never compiled, only parsed for the templates calling into them
+        final Set<Path> requiredLibraryFiles = graph.getDependenciesClosure(soyFiles);
+        requiredLibraryFiles.removeAll(soyFiles);
+        final List<Path> libraryDependencyFiles = DependencyGraph.ordered(requiredLibraryFiles, allFiles);
+
+        final List<Path> compiledFiles;
+        final List<Path> dependencyFiles;
+
+        final boolean fullBuild = isFullBuildRequired(previousManifest, manifest);
+        final Set<Path> rebuiltLocales = new LinkedHashSet<>();
+
+        if (fullBuild) {
+            rebuiltLocales.addAll(xliffFiles);
+        } else {
+            for (final Path xliffFilePath : xliffFiles) {
+                final String previousFingerprint = previousManifest.getTranslations().get(xliffFilePath);
+                if (!translationFingerprints.get(xliffFilePath).equals(previousFingerprint)) {
+                    rebuiltLocales.add(xliffFilePath);
+                }
+            }
+            for (final Path xliffFilePath : previousManifest.getTranslations().keySet()) {
+                if (!translationFingerprints.containsKey(xliffFilePath)) {
+                    removeLocaleOutputs(xliffFilePath, xliffFiles);
+                }
+            }
+            if (!rebuiltLocales.isEmpty()) {
+                getLog().info("Recompiling all SOY templates for " + rebuiltLocales.size() + " of " +
+                              xliffFiles.size() + " locales with changed translations.");
+            }
+        }
 
-        final SoyFileSet soyFileSet = getSoyFileSet(soyFiles);
+        if (fullBuild) {
+            getLog().info("Recompiling all " + soyFiles.size() + " SOY templates.");
+
+            compiledFiles = soyFiles;
+            dependencyFiles = libraryDependencyFiles;
+        } else {
+            final Set<String> touchedSymbols = new LinkedHashSet<>();
+            for (final Path soyFilePath : changedFiles) {
+                touchedSymbols.addAll(DependencyGraph.getProvidedSymbols(dependencies.get(soyFilePath)));
+                final BuildManifest.SourceEntry previousEntry = previousSources.get(soyFilePath);
+                if (previousEntry != null) {
+                    touchedSymbols.addAll(DependencyGraph.getProvidedSymbols(previousEntry.getDependencies()));
+                }
+            }
+
+            for (final Map.Entry<Path, BuildManifest.SourceEntry> entry : previousSources.entrySet()) {
+                if (!dependencies.containsKey(entry.getKey())) {
+                    touchedSymbols.addAll(DependencyGraph.getProvidedSymbols(entry.getValue().getDependencies()));
+                    if (!entry.getKey().isAbsolute()) {
+                        removeOutputs(entry.getKey(), entry.getValue(), xliffFiles);
+                    }
+                }
+            }
+
+            final Set<Path> affectedFiles = new LinkedHashSet<>(changedFiles);
+            affectedFiles.addAll(graph.getConsumers(touchedSymbols));
+
+            compiledFiles = DependencyGraph.ordered(graph.getDependentsClosure(affectedFiles), soyFiles);
+
+            final Set<Path> requiredFiles = graph.getDependenciesClosure(compiledFiles);
+            requiredFiles.removeAll(compiledFiles);
+            dependencyFiles = DependencyGraph.ordered(requiredFiles, allFiles);
+
+            getLog().info("Recompiling " + compiledFiles.size() + " of " + soyFiles.size() + " SOY templates (" +
+                          changedFiles.size() + " changed).");
+        }
+
+        analyzePhase.close();
+
+        metrics.add("templatesChanged", changedFiles.size());
+        metrics.add("templatesCompiled", compiledFiles.size());
+        metrics.add("templateDependencies", dependencyFiles.size());
+        metrics.add("localesRebuilt", rebuiltLocales.size());
+
+        Files.createDirectories(jsOutputDirectory.toPath());
+        Files.createDirectories(getJavaSourceOutputPath());
+
+        final List<Shard> shards = getShards(graph, compiledFiles, dependencyFiles, allFiles, sourceFingerprints);
+        final List<Shard> allShards;
+        if (fullBuild || rebuiltLocales.isEmpty()) {
+            allShards = shards;
+        } else {
+            allShards = getShards(graph, soyFiles, libraryDependencyFiles, allFiles, sourceFingerprints);
+        }
+
+        metrics.add("shards", shards.size());
+
+        try (BuildMetrics.Phase ignored = metrics.startPhase("compile-js")) {
+            generateJs(shards, allShards, xliffFiles, manifest, rebuiltLocales);
+        }
+
+        if (jsBundle) {
+            try (BuildMetrics.Phase ignored = metrics.startPhase("bundle-js")) {
+                bundleJs(graph, soyFiles, xliffFiles);
+            }
+        }
+
+        if (!compressors.isEmpty() && !uncompressedOutputs.isEmpty()) {
+            try (BuildMetrics.Phase ignored = metrics.startPhase("compress")) {
+                compressOutputs();
+            }
+        }
+
+        final List<Path> parseInfoFiles = getParseInfoFiles(graph, soyFiles, compiledFiles, previousSources);
+        if (!parseInfoFiles.isEmpty()) {
+            try (BuildMetrics.Phase ignored = metrics.startPhase("parse-info")) {
+                generateParseInfo(graph, parseInfoFiles, allFiles, sourceFingerprints, manifest);
+            }
+        }
+
+        try (BuildMetrics.Phase ignored = metrics.startPhase("write-manifest")) {
+            if (fullBuild) {
+                deleteStaleOutputs(jsOutputDirectory);
+                deleteStaleOutputs(javaOutputDirectory);
+            }
+            if (jsBundle) {
+                // bundles of every locale are written on each build, and their names change with their content
+                deleteStaleOutputs(jsBundleDirectory);
+            }
+
+            manifest.setSourceDigest(Hex.encodeHexString(sourceDigestBytes));
+            if (!fullBuild) {
+                manifest.getOutputs().putAll(previousManifest.getOutputs());
+            }
+            updateOutputs(manifest);
+
+            Files.createDirectories(statusFilePath.getParent());
+            manifest.write(statusFilePath);
+
+            translationCache.retain(getTranslationCacheKeys(manifest));
+        }
+
+        getLog().info("Generated " + writtenOutputs.size() + " files, " + metrics.get("outputsUnchanged") +
+                      " of them unchanged.");
+    }
+
+    /**
+     * Restores the outputs of an identical build from the output cache, together with a build manifest for the
+     * current workspace.
+     *
+     * @return {@code false} if the cache has no such build
+     */
+    private boolean restoreOutputs(String outputCacheKey, List<Path> soyFiles,
+            Map<Path, BuildManifest.SourceEntry> libraryEntries, Map<Path, String> sourceFingerprints,
+            Map<Path, String> translationFingerprints, byte[] sourceDigestBytes, Path statusFilePath)
+            throws IOException, NoSuchAlgorithmException {
+
+        final Path entry = getOutputCache().find(outputCacheKey);
+        if (entry == null) {
+            metrics.increment("outputCacheMisses");
+            return false;
+        }
+
+        final BuildManifest cachedManifest = BuildManifest.read(OutputCache.getManifestFile(entry));
+
+        final BuildManifest manifest = new BuildManifest(getOptionsDigest());
+        manifest.getTranslations().putAll(translationFingerprints);
+
+        for (final Path soyFilePath : soyFiles) {
+            final BuildManifest.SourceEntry cachedEntry = cachedManifest.getSources().get(soyFilePath);
+            if (cachedEntry == null) {
+                // not reachable from the entry points
+                continue;
+            }
+            final BuildManifest.SourceEntry sourceEntry =
+                    new BuildManifest.SourceEntry(sourceFingerprints.get(soyFilePath), cachedEntry.getDependencies());
+            sourceEntry.setJavaOutputs(cachedEntry.getJavaOutputs());
+            manifest.getSources().put(soyFilePath, sourceEntry);
+        }
+        manifest.getSources().putAll(libraryEntries);
+
+        markOutputsChanging();
+
+        final Path jsOutputPath = jsOutputDirectory.toPath();
+        for (final Path file : OutputCache.restore(entry, JS_OUTPUT_TREE, jsOutputPath)) {
+            writtenOutputs.add(jsOutputPath.resolve(file));
+        }
+        final Path javaOutputPath = javaOutputDirectory.toPath();
+        for (final Path file : OutputCache.restore(entry, JAVA_OUTPUT_TREE, javaOutputPath)) {
+            writtenOutputs.add(javaOutputPath.resolve(file));
+        }
+
+        if (jsBundle) {
+            final Path jsBundlePath = jsBundleDirectory.toPath();
+            for (final Path file : OutputCache.restore(entry, JS_BUNDLE_TREE, jsBundlePath)) {
+                writtenOutputs.add(jsBundlePath.resolve(file));
+            }
+            deleteStaleOutputs(jsBundleDirectory);
+        }
+
+        deleteStaleOutputs(jsOutputDirectory);
+        deleteStaleOutputs(javaOutputDirectory);
+
+        manifest.setSourceDigest(Hex.encodeHexString(sourceDigestBytes));
+        updateOutputs(manifest);
+
+        Files.createDirectories(statusFilePath.getParent());
+        manifest.write(statusFilePath);
+
+        metrics.increment("outputCacheHits");
+        metrics.add("outputsRestored", writtenOutputs.size());
+        getLog().info("Restored " + writtenOutputs.size() + " generated files from the output cache.");
+        return true;
+    }
+
+    private void storeOutputs(String outputCacheKey, Path statusFilePath) {
+
+        final Map<String, Path> trees = new LinkedHashMap<>();
+        trees.put(JS_OUTPUT_TREE, jsOutputDirectory.toPath());
+        trees.put(JAVA_OUTPUT_TREE, javaOutputDirectory.toPath());
+        if (jsBundle) {
+            trees.put(JS_BUNDLE_TREE, jsBundleDirectory.toPath());
+        }
+
+        try {
+            final OutputCache outputCache = getOutputCache();
+            outputCache.store(outputCacheKey, statusFilePath, trees);
+            outputCache.evict();
+        } catch (IOException | RuntimeException e) {
+            getLog().warn("Could not store generated files in the output cache: " + e.getMessage());
+        }
+    }
+
+    private OutputCache getOutputCache() {
+        return new OutputCache(outputCacheDirectory.toPath(), outputCacheSize * 1024L * 1024L);
+    }
+
+    /**
+     * Digest of everything the outputs depend on that is the same in any workspace: options, tool versions, and
+     * template and translation content under their relative paths.
+     */
+    private String getOutputCacheKey(List<Path> soyFiles, List<Path> xliffFiles,
+            Map<Path, BuildManifest.SourceEntry> libraryEntries, Map<Path, String> sourceFingerprints,
+            Map<Path, String> translationFingerprints) throws IOException, NoSuchAlgorithmException {
+
+        final MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        updateDigest(md, getOptionsDigest());
+        updateDigest(md, getToolVersions());
+
+        // timestamp fingerprints differ between workspaces
+        final StatCache contentCache = fingerprintMode == FingerprintMode.CONTENT ? null : new StatCache();
+
+        for (final Path soyFilePath : soyFiles) {
+            updateDigest(md, "src");
+            updateDigest(md, soyFilePath.toString());
+            updateDigest(md, contentCache == null ? sourceFingerprints.get(soyFilePath) :
+                    contentCache.getFingerprint(sources.toPath().resolve(soyFilePath)));
+        }
+
+        for (final Path xliffFilePath : xliffFiles) {
+            updateDigest(md, "xlf");
+            updateDigest(md, xliffFilePath.toString());
+            updateDigest(md, contentCache == null ? translationFingerprints.get(xliffFilePath) :
+                    contentCache.getFingerprint(translations.toPath().resolve(xliffFilePath)));
+        }
+
+        for (final Map.Entry<Path, BuildManifest.SourceEntry> entry : libraryEntries.entrySet()) {
+            updateDigest(md, "lib");
+            updateDigest(md, librariesDirectory.toPath().relativize(entry.getKey()).toString());
+            updateDigest(md, entry.getValue().getFingerprint());
+        }
+
+        return Hex.encodeHexString(md.digest());
+    }
+
+    private String getToolVersions() {
+        final PluginDescriptor pluginDescriptor = execution.getMojoDescriptor().getPluginDescriptor();
+        final CodeSource soyCodeSource = SoyFileSet.class.getProtectionDomain().getCodeSource();
+        return (pluginDescriptor == null ? "" : pluginDescriptor.getId()) + " " +
+               (soyCodeSource == null ? "" : new File(soyCodeSource.getLocation().getPath()).getName());
+    }
+
+    /**
+     * @return files defining the entry points together with every file they transitively call into
+     */
+    private Set<Path> getReachableFiles(DependencyGraph graph) {
+
+        final Set<Path> roots = new LinkedHashSet<>();
+
+        for (final String entryPoint : entryPoints) {
+            final String name = entryPoint.trim();
+            final Set<Path> entryPointFiles = graph.getEntryPointFiles(name);
+            if (entryPointFiles.isEmpty()) {
+                getLog().warn("No SOY template file provides entry point " + name);
+            }
+            roots.addAll(entryPointFiles);
+        }
+
+        return graph.getDependenciesClosure(roots);
+    }
+
+    private boolean isFullBuildRequired(BuildManifest previousManifest, BuildManifest manifest) {
+        return previousManifest == null ||
+               !previousManifest.getOptionsDigest().equals(manifest.getOptionsDigest()) ||
+               previousManifest.getTranslations().isEmpty() != manifest.getTranslations().isEmpty() ||
+               javaClassNameSource == JavaClassNameSource.GENERIC ||
+               !jsOutputDirectory.exists() ||
+               !javaOutputDirectory.exists();
+    }
+
+    private void removeOutputs(Path soyFilePath, BuildManifest.SourceEntry entry, List<Path> xliffFiles)
+            throws IOException {
+
+        final Path jsFilePath = Utils.changeSuffix(soyFilePath, SOY_EXTENSION, JS_EXTENSION);
+        for (final Path outputPath : getJsOutputPaths(xliffFiles)) {
+            final Path jsOutput = outputPath.resolve(jsFilePath);
+            deleteOutput(jsOutput);
+            for (final OutputCompressor compressor : compressors) {
+                deleteOutput(Utils.addSuffix(jsOutput, compressor.getExtension()));
+            }
+            if (jsCompact && jsSourceMaps) {
+                deleteOutput(Utils.addSuffix(jsOutput, SOURCE_MAP_EXTENSION));
+            }
+        }
+
+        for (final Path javaOutput : entry.getJavaOutputs()) {
+            deleteOutput(javaOutputDirectory.toPath().resolve(javaOutput));
+        }
+    }
+
+    /**
+     * Deletes the output subtree of a locale whose translation file was removed, leaving alone the outputs of other
+     * locales nested inside it.
+     */
+    private void removeLocaleOutputs(Path removedXliffFilePath, List<Path> xliffFiles) throws IOException {
+
+        final Path outputPath = Utils.removeSuffix(jsOutputDirectory.toPath().resolve(removedXliffFilePath),
+                XLIFF_EXTENSION);
+        if (!Files.isDirectory(outputPath)) {
+            return;
+        }
+
+        final List<Path> retainedPaths = getJsOutputPaths(xliffFiles);
+        for (final Path file : scan(outputPath.toFile()).getFiles()) {
+            final Path output = outputPath.resolve(file);
+            boolean retained = false;
+            for (final Path retainedPath : retainedPaths) {
+                if (output.startsWith(retainedPath)) {
+                    retained = true;
+                    break;
+                }
+            }
+            if (!retained) {
+                deleteOutput(output);
+            }
+        }
+
+        Utils.deleteEmptyDirectories(outputPath);
+    }
+
+    /**
+     * @return {@code true} if the file was written, {@code false} if it already had the given content
+     */
+    private boolean writeOutput(Path file, CharSequence content, Charset charset) throws IOException {
+        return writeOutput(file, OutputWriter.encode(content, charset));
+    }
+
+    private boolean writeOutput(Path file, ByteBuffer content) throws IOException {
+        markOutputsChanging();
+        final long started = System.nanoTime();
+        final boolean written = OutputWriter.write(file, content);
+        if (written) {
+            metrics.increment("outputsWritten");
+        } else {
+            metrics.increment("outputsUnchanged");
+        }
+        metrics.add("outputWriteNanos", System.nanoTime() - started);
+        writtenOutputs.add(file);
+        return written;
+    }
+
+    /**
+     * Queues a JS output for compression if it changed or any of its compressed copies is missing, unless there is
+     * nothing to compress it with.
+     */
+    private void writeJsOutput(Path file, CharSequence content, Charset charset) throws IOException {
+        writeJsOutput(file, OutputWriter.encode(content, charset));
+    }
+
+    private void writeJsOutput(Path file, ByteBuffer content) throws IOException {
+        if (writeOutput(file, content)) {
+            if (!compressors.isEmpty()) {
+                uncompressedOutputs.add(file);
+            }
+        } else {
+            keepCompressedOutputs(file);
+        }
+    }
+
+    private void keepCompressedOutputs(Path file) {
+        for (final OutputCompressor compressor : compressors) {
+            final Path compressedFile = Utils.addSuffix(file, compressor.getExtension());
+            if (Files.isRegularFile(compressedFile)) {
+                writtenOutputs.add(compressedFile);
+            } else {
+                uncompressedOutputs.add(file);
+            }
+        }
+    }
+
+    /**
+     * Compacts and writes a JS output, unless it was compacted from the same compiled JS before and neither it nor
+     * its source map changed since.
+     */
+    private void writeCompactedJsOutput(Path file, String compiledSource, Charset charset) throws IOException {
+
+        final Path basedir = project.getBasedir().toPath();
+        final Path output = basedir.relativize(file);
+        final Path sourceMapFile = Utils.addSuffix(file, SOURCE_MAP_EXTENSION);
+        final String hash = Hashing.murmur3_128().hashString(compiledSource, StandardCharsets.UTF_8).toString();
+
+        if (hash.equals(compactionIndex.get(output)) && isUnchangedOutput(basedir, file) &&
+            (!jsSourceMaps || isUnchangedOutput(basedir, sourceMapFile))) {
+            writtenOutputs.add(file);
+            if (jsSourceMaps) {
+                writtenOutputs.add(sourceMapFile);
+            }
+            keepCompressedOutputs(file);
+            metrics.increment("compactionsSkipped");
+            return;
+        }
+
+        final String fileName = file.getFileName().toString();
+        final String[] compacted = JsCompactor.compact(compiledSource, fileName,
+                Utils.changeSuffix(file.getFileName(), JS_EXTENSION, RAW_JS_EXTENSION).toString(), jsSourceMaps);
+
+        if (compacted == null) {
+            getLog().warn("Could not compact " + file + ", writing it as compiled.");
+            writeJsOutput(file, compiledSource, charset);
+            if (jsSourceMaps) {
+                deleteOutput(sourceMapFile);
+            }
+        } else {
+            writeJsOutput(file, compacted[0], charset);
+            if (jsSourceMaps) {
+                writeOutput(sourceMapFile, compacted[1], StandardCharsets.UTF_8);
+            }
+            metrics.increment("outputsCompacted");
+        }
+
+        compactionIndex.put(output, hash);
+    }
+
+    private boolean isUnchangedOutput(Path basedir, Path file) {
+        final BuildManifest.OutputEntry entry = previousOutputs.get(basedir.relativize(file));
+        return entry != null && entry.matches(file);
+    }
+
+    private CompactionIndex readCompactionIndex(Path compactionIndexPath) {
+        final String key = jsOutputCharsetName + ":" + jsSourceMaps;
+        try {
+            return CompactionIndex.read(compactionIndexPath, key);
+        } catch (IOException | RuntimeException e) {
+            getLog().warn("Ignoring unreadable compaction index: " + e.getMessage());
+            return new CompactionIndex(key);
+        }
+    }
+
+    /**
+     * Writes the compressed copies of the queued JS outputs, one task per file.
+     */
+    private void compressOutputs() throws IOException {
+
+        final List<Callable<Void>> tasks = new ArrayList<>(uncompressedOutputs.size());
+        for (final Path file : uncompressedOutputs) {
+            tasks.add(() -> {
+                compressOutput(file);
+                return null;
+            });
+        }
+
+        getLog().info("Compressing " + tasks.size() + " JS files.");
+        try (ParallelExecutor executor = new ParallelExecutor(threads)) {
+            executor.invokeAll(tasks);
+        }
+    }
+
+    private void compressOutput(Path file) throws IOException {
+        final byte[] content = Files.readAllBytes(file);
+        for (final OutputCompressor compressor : compressors) {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length / 4 + 64);
+            try (OutputStream out = compressor.compress(buffer)) {
+                out.write(content);
+            }
+            writeOutput(Utils.addSuffix(file, compressor.getExtension()), ByteBuffer.wrap(buffer.toByteArray()));
+            metrics.increment("outputsCompressed");
+        }
+    }
+
+    private List<OutputCompressor> getCompressors() throws MojoExecutionException {
+
+        if (jsCompressions == null || jsCompressions.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final Map<String, OutputCompressor> available = new LinkedHashMap<>();
+        for (final OutputCompressor compressor : ServiceLoader.load(OutputCompressor.class,
+                getClass().getClassLoader())) {
+            available.put(compressor.getName(), compressor);
+        }
+
+        final List<OutputCompressor> selected = new ArrayList<>(jsCompressions.size());
+        for (final String name : jsCompressions) {
+            final OutputCompressor compressor = available.get(name.trim());
+            if (compressor == null) {
+                throw new MojoExecutionException(
+                        "Unknown JS compression: " + name + ", available: " + available.keySet());
+            }
+            selected.add(compressor);
+        }
+        return selected;
+    }
+
+    /**
+     * Removes files a full build did not produce, instead of clearing the output directory up front, so that files
+     * regenerated with the same content keep their modification time.
+     */
+    private void deleteStaleOutputs(File directory) throws IOException {
+        final Path root = directory.toPath();
+        for (final Path file : scan(directory).getFiles()) {
+            final Path output = root.resolve(file);
+            if (!writtenOutputs.contains(output)) {
+                deleteOutput(output);
+            }
+        }
+    }
+
+    private void deleteOutput(Path file) throws IOException {
+        markOutputsChanging();
+        if (Files.deleteIfExists(file)) {
+            metrics.increment("outputsDeleted");
+        }
+        deletedOutputs.add(file);
+        if (compactionIndex != null) {
+            compactionIndex.remove(project.getBasedir().toPath().relativize(file));
+        }
+    }
+
+    private void updateOutputs(BuildManifest manifest) throws IOException {
+        final Path basedir = project.getBasedir().toPath();
+        for (final Path file : deletedOutputs) {
+            manifest.getOutputs().remove(basedir.relativize(file));
+        }
+        for (final Path file : writtenOutputs) {
+            manifest.getOutputs().put(basedir.relativize(file), BuildManifest.OutputEntry.of(file));
+        }
+    }
+
+    private List<Path> getJsOutputPaths(List<Path> xliffFiles) {
+        final Path outputRootPath = jsOutputDirectory.toPath();
+        if (xliffFiles.isEmpty()) {
+            return Collections.singletonList(outputRootPath);
+        }
+        final List<Path> outputPaths = new ArrayList<>(xliffFiles.size());
+        for (final Path xliffFilePath : xliffFiles) {
+            outputPaths.add(Utils.removeSuffix(outputRootPath.resolve(xliffFilePath), XLIFF_EXTENSION));
+        }
+        return outputPaths;
+    }
+
+    /**
+     * Compiles the given shards for every locale, except the locales whose translations changed, which get the
+     * shards of all templates compiled. Each shard of each locale is a separate task.
+     */
+    private void generateJs(List<Shard> shards, List<Shard> allShards, List<Path> xliffFiles,
+            BuildManifest manifest, Set<Path> rebuiltLocales) throws IOException {
+
+        final Path outputRootPath = jsOutputDirectory.toPath();
+        final List<Callable<Void>> tasks = new ArrayList<>();
 
         if (xliffFiles.isEmpty()) {
             getLog().info("No translations detected. Using default messages.");
-            generateJs(soyFiles, soyFileSet, null, outputRootPath);
+            addJsTasks(tasks, shards, manifest, null, outputRootPath);
         } else {
-            final SoyMsgBundleHandler smbh = new SoyMsgBundleHandler(new XliffMsgPlugin());
             for (final Path xliffFilePath : xliffFiles) {
-                final SoyMsgBundle smb = smbh.createFromFile(translations.toPath().resolve(xliffFilePath).toFile());
                 final Path outputPath = Utils.removeSuffix(outputRootPath.resolve(xliffFilePath), XLIFF_EXTENSION);
-                generateJs(soyFiles, soyFileSet, smb, outputPath);
+                addJsTasks(tasks, rebuiltLocales.contains(xliffFilePath) ? allShards : shards, manifest,
+                        xliffFilePath, outputPath);
             }
         }
 
-        final ImmutableMap<String, String> parseInfo = SoyFileSetAccessor.generateParseInfo(soyFileSet, javaPackage,
-                javaClassNameSource.getValue());
+        if (tasks.size() > 1) {
+            getLog().info("Compiling " + tasks.size() + " locale and shard combinations using " +
+                          ParallelExecutor.getPoolSize(threads) + " threads.");
+        }
+        runTasks(tasks);
+    }
+
+    /**
+     * Runs a single task in the calling thread, and several in parallel.
+     */
+    private void runTasks(List<Callable<Void>> tasks) throws IOException {
+        if (tasks.size() == 1) {
+            try {
+                tasks.get(0).call();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        } else if (!tasks.isEmpty()) {
+            try (ParallelExecutor executor = new ParallelExecutor(threads)) {
+                executor.invokeAll(tasks);
+            }
+        }
+    }
+
+    /**
+     * Concatenates the compiled templates of every locale into bundles, callees first, reading the templates that
+     * were not recompiled from the output directory.
+     */
+    private void bundleJs(DependencyGraph graph, List<Path> soyFiles, List<Path> xliffFiles) throws IOException {
+
+        final List<Path> loadOrder = graph.getLoadOrder(soyFiles);
+        final Path outputRootPath = jsOutputDirectory.toPath();
+        final Path bundleRootPath = jsBundleDirectory.toPath();
+        Files.createDirectories(bundleRootPath);
+
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (final Path outputPath : getJsOutputPaths(xliffFiles)) {
+            final Path bundlePath = bundleRootPath.resolve(outputRootPath.relativize(outputPath));
+            tasks.add(() -> {
+                bundleJs(graph, loadOrder, outputPath, bundlePath);
+                return null;
+            });
+        }
+        runTasks(tasks);
+    }
+
+    private void bundleJs(DependencyGraph graph, List<Path> loadOrder, Path outputPath, Path bundlePath)
+            throws IOException, NoSuchAlgorithmException {
+
+        final Charset jsOutputCharset = Charset.forName(jsOutputCharsetName);
+        final JsBundler bundler = new JsBundler(jsBundleSize * 1024L, OutputWriter.encode("\n", jsOutputCharset));
+
+        for (final Path soyFilePath : loadOrder) {
+            final Path jsFilePath = Utils.changeSuffix(soyFilePath, SOY_EXTENSION, JS_EXTENSION);
+            byte[] content = Files.readAllBytes(outputPath.resolve(jsFilePath));
+            if (jsCompact && jsSourceMaps) {
+                // the source map of a template does not apply to the bundle it ends up in
+                content = JsCompactor.removeSourceMappingUrl(new String(content, jsOutputCharset))
+                        .getBytes(jsOutputCharset);
+            }
+            bundler.add(graph.getDependencies(soyFilePath).getNamespace(), jsFilePath, content);
+        }
+
+        for (final Map.Entry<String, ByteBuffer> bundle : bundler.getBundles().entrySet()) {
+            writeJsOutput(bundlePath.resolve(bundle.getKey()), bundle.getValue());
+            metrics.increment("bundlesWritten");
+        }
+        writeOutput(bundlePath.resolve(JsBundler.MANIFEST_FILE), bundler.getManifest(), StandardCharsets.UTF_8);
+    }
+
+    private void addJsTasks(List<Callable<Void>> tasks, List<Shard> shards, BuildManifest manifest,
+            Path xliffFilePath, Path outputPath) {
+        for (final Shard shard : shards) {
+            if (!shard.soyFiles.isEmpty()) {
+                tasks.add(() -> {
+                    generateJs(shard.soyFiles, shard.dependencyFiles, shard.fileSetKey, manifest, xliffFilePath,
+                            outputPath);
+                    return null;
+                });
+            }
+        }
+    }
+
+    /**
+     * Without a shard size, or when it is not exceeded, all templates form a single shard. Otherwise every shard is
+     * compiled with the templates it transitively calls into parsed as dependencies.
+     */
+    private List<Shard> getShards(DependencyGraph graph, List<Path> files, List<Path> dependencyFiles,
+            List<Path> order, Map<Path, String> fingerprints) throws NoSuchAlgorithmException {
+
+        if (shardSize <= 0 || files.size() <= shardSize) {
+            return Collections.singletonList(
+                    new Shard(files, dependencyFiles, getFileSetKey(files, dependencyFiles, fingerprints)));
+        }
+
+        final List<Shard> shards = new ArrayList<>();
+        for (final List<Path> shardFiles : ShardPlanner.split(graph, files, shardSize)) {
+            final Set<Path> requiredFiles = graph.getDependenciesClosure(shardFiles);
+            requiredFiles.removeAll(shardFiles);
+            final List<Path> shardDependencyFiles = DependencyGraph.ordered(requiredFiles, order);
+            shards.add(new Shard(shardFiles, shardDependencyFiles,
+                    getFileSetKey(shardFiles, shardDependencyFiles, fingerprints)));
+        }
+
+        getLog().info("Compiling " + files.size() + " SOY templates in " + shards.size() + " shards of at most " +
+                      shardSize + " templates.");
+        return shards;
+    }
+
+    /**
+     * Groups the given templates by their parse info class names, in the order of the given templates. Soy numbers
+     * the classes of templates with the same name apart only within one file set, so a group is always generated as a
+     * whole; with generic names all the templates form a single group.
+     */
+    private Collection<List<Path>> getClassNameGroups(DependencyGraph graph, List<Path> files) {
+        final Map<String, List<Path>> groups = new LinkedHashMap<>();
+        for (final Path file : files) {
+            groups.computeIfAbsent(getClassName(file, graph.getDependencies(file)), k -> new ArrayList<>()).add(file);
+        }
+        return groups.values();
+    }
+
+    /**
+     * A template's parse info class changes whenever another template of the same class name is compiled, added or
+     * removed, as Soy numbers such classes apart. So every template sharing a class name with a compiled template, or
+     * with one removed or compiled since the previous build under its previous name, gets its parse info generated.
+     *
+     * @return templates to generate the parse info of, in the order of the given templates
+     */
+    private List<Path> getParseInfoFiles(DependencyGraph graph, List<Path> soyFiles, List<Path> compiledFiles,
+            Map<Path, BuildManifest.SourceEntry> previousSources) {
+
+        final Set<String> classNames = new HashSet<>();
+        for (final Path soyFilePath : compiledFiles) {
+            classNames.add(getClassName(soyFilePath, graph.getDependencies(soyFilePath)));
+        }
+
+        final Set<Path> compiled = new HashSet<>(compiledFiles);
+        for (final Map.Entry<Path, BuildManifest.SourceEntry> entry : previousSources.entrySet()) {
+            final Path soyFilePath = entry.getKey();
+            if (!soyFilePath.isAbsolute() &&
+                (compiled.contains(soyFilePath) || graph.getDependencies(soyFilePath) == null)) {
+                classNames.add(getClassName(soyFilePath, entry.getValue().getDependencies()));
+            }
+        }
+
+        final List<Path> parseInfoFiles = new ArrayList<>();
+        for (final Path soyFilePath : soyFiles) {
+            if (classNames.contains(getClassName(soyFilePath, graph.getDependencies(soyFilePath)))) {
+                parseInfoFiles.add(soyFilePath);
+            }
+        }
+        return parseInfoFiles;
+    }
+
+    private String getClassName(Path soyFilePath, SoyFileDependencies dependencies) {
+        return javaClassNameSource.getClassName(soyFilePath.getFileName().toString(), dependencies.getNamespace());
+    }
+
+    /**
+     * Generates the parse info classes of every template in a task of its own, with the templates it transitively
+     * calls into parsed as dependencies, and templates of the same class name together. Each task's result is cached
+     * under its own file set, so editing one template leaves the cached classes of the others usable. Stale classes
+     * are only deleted once all the tasks are done, as a class may have been taken over by another template.
+     */
+    private void generateParseInfo(DependencyGraph graph, List<Path> soyFiles, List<Path> order,
+            Map<Path, String> fingerprints, BuildManifest manifest) throws IOException, NoSuchAlgorithmException {
 
         final Charset classSourceCharset;
         if (StringUtils.isEmpty(javaOutputCharsetName)) {
@@ -183,80 +1240,256 @@ public class CompileMojo extends AbstractSoyMojo {
             classSourceCharset = Charset.forName(javaOutputCharsetName);
         }
 
-        for (final Map.Entry<String, String> entry : parseInfo.entrySet()) {
-            final String classFileName = entry.getKey();
-            final String classSource = entry.getValue();
-            try (FileOutputStream out = new FileOutputStream(javaSourceOutputPath.resolve(classFileName).toFile());
-                 OutputStreamWriter writer = new OutputStreamWriter(out, classSourceCharset)) {
-                writer.write(classSource);
+        final Set<Path> staleJavaOutputs = ConcurrentHashMap.newKeySet();
+        final List<Callable<Void>> tasks = new ArrayList<>();
+
+        for (final List<Path> files : getClassNameGroups(graph, soyFiles)) {
+            final Set<Path> requiredFiles = graph.getDependenciesClosure(files);
+            requiredFiles.removeAll(files);
+            final List<Path> dependencyFiles = DependencyGraph.ordered(requiredFiles, order);
+            final String fileSetKey = getFileSetKey(files, dependencyFiles, fingerprints);
+            tasks.add(() -> {
+                generateParseInfo(files, dependencyFiles, fileSetKey, classSourceCharset, manifest, staleJavaOutputs);
+                return null;
+            });
+        }
+
+        runTasks(tasks);
+
+        // a class another template took over is not stale, whichever task saw it first
+        for (final Path staleJavaOutput : staleJavaOutputs) {
+            if (!writtenOutputs.contains(staleJavaOutput)) {
+                deleteOutput(staleJavaOutput);
             }
         }
+    }
 
-        final byte[] targetDigestBytes = getGeneratedFilesDigest();
+    private void generateParseInfo(List<Path> soyFiles, List<Path> dependencyFiles, String fileSetKey,
+            Charset classSourceCharset, BuildManifest manifest, Set<Path> staleJavaOutputs) throws IOException {
 
-        final Path statusFilePath = getStatusFilePath();
-        Files.createDirectories(statusFilePath.getParent());
-        try (FileOutputStream out = new FileOutputStream(statusFilePath.toFile());
-             OutputStreamWriter outputStreamWriter = new OutputStreamWriter(out, TEXT_DIGEST_CHARSET);
-             BufferedWriter writer = new BufferedWriter(outputStreamWriter)) {
-            writer.write(Hex.encodeHex(sourceDigestBytes));
-            writer.newLine();
-            writer.write(Hex.encodeHex(targetDigestBytes));
-            writer.newLine();
+        final Path javaSourceOutputPath = getJavaSourceOutputPath();
+        final SoyFileSetCache cache = getFileSetCache();
+
+        final String parseInfoKey = "parse-info:" + manifest.getOptionsDigest();
+        ImmutableMap<String, String> parseInfo = cache.get(fileSetKey, parseInfoKey);
+        if (parseInfo == null) {
+            parseInfo = SoyFileSetAccessor.generateParseInfo(getSoyFileSet(soyFiles, dependencyFiles), javaPackage,
+                    javaClassNameSource.getValue());
+            cache.put(fileSetKey, parseInfoKey, parseInfo, getWeight(parseInfo.values()));
+        } else {
+            getLog().debug("Reusing parse info generated by an earlier build in this JVM.");
+            metrics.increment("cacheHits");
         }
+
+        final List<Path> javaOutputs = new ArrayList<>();
+
+        for (final Map.Entry<String, String> entry : parseInfo.entrySet()) {
+            final Path classFilePath = javaSourceOutputPath.resolve(entry.getKey());
+            writeOutput(classFilePath, entry.getValue(), classSourceCharset);
+            javaOutputs.add(javaOutputDirectory.toPath().relativize(classFilePath));
+        }
+
+        assignJavaOutputs(soyFiles, javaOutputs, manifest, staleJavaOutputs);
     }
 
-    private void generateJs(List<Path> soyFiles, SoyFileSet soyFileSet, SoyMsgBundle soyMsgBundle, Path outputPath)
-            throws IOException {
+    /**
+     * Records the generated classes as outputs of the templates they were generated from. Soy numbers the classes of
+     * templates with the same class name in no particular order, so each template of such a group owns all the
+     * classes of the group. Classes that no longer get generated are collected as stale.
+     *
+     * @param javaOutputs generated classes, relative to the Java output directory
+     */
+    private void assignJavaOutputs(List<Path> soyFiles, Collection<Path> javaOutputs, BuildManifest manifest,
+            Set<Path> staleJavaOutputs) {
 
-        final List<String> compiledSources = soyFileSet.compileToJsSrc(
-                firstNonNull(jsSrcOptions, new SoyJsSrcOptions()), soyMsgBundle);
+        final List<Path> outputs = new ArrayList<>(javaOutputs);
+        for (final Path soyFilePath : soyFiles) {
+            final BuildManifest.SourceEntry entry = manifest.getSources().get(soyFilePath);
+            for (final Path staleJavaOutput : entry.getJavaOutputs()) {
+                if (!outputs.contains(staleJavaOutput)) {
+                    staleJavaOutputs.add(javaOutputDirectory.toPath().resolve(staleJavaOutput));
+                }
+            }
+            entry.setJavaOutputs(outputs);
+        }
+    }
 
-        final Iterator<Path> soyFilePathIt = soyFiles.iterator();
+    private void generateJs(List<Path> soyFiles, List<Path> dependencyFiles, String fileSetKey,
+            BuildManifest manifest, Path xliffFilePath, Path outputPath) throws IOException {
 
-        for (final String compiledSource : compiledSources) {
+        final SoyFileSetCache cache = getFileSetCache();
+        final String resultKey = "js:" + manifest.getOptionsDigest() + ":" +
+                                 (xliffFilePath == null ? "" : manifest.getTranslations().get(xliffFilePath));
 
-            final Path targetPath = outputPath.resolve(
-                    Utils.changeSuffix(soyFilePathIt.next(), SOY_EXTENSION, JS_EXTENSION));
+        final BuildMetrics.Phase phase = metrics.startParallelPhase(
+                "compile-js:" + (xliffFilePath == null ? "default" : xliffFilePath.toString()));
 
-            Files.createDirectories(targetPath.getParent());
+        List<String> compiledSources = cache.get(fileSetKey, resultKey);
 
-            try (FileOutputStream out = new FileOutputStream(targetPath.toFile());
-                 OutputStreamWriter writer = new OutputStreamWriter(out, jsOutputCharsetName)) {
-                writer.write(compiledSource);
+        if (compiledSources == null) {
+            final SoyMsgBundle soyMsgBundle;
+            if (xliffFilePath == null) {
+                soyMsgBundle = null;
+            } else {
+                soyMsgBundle = loadTranslations(xliffFilePath, manifest.getTranslations().get(xliffFilePath));
             }
+            // every compileToJsSrc() call parses the file set again, and a file set is not safe to share
+            compiledSources = getSoyFileSet(soyFiles, dependencyFiles).compileToJsSrc(
+                    firstNonNull(jsSrcOptions, new SoyJsSrcOptions()), soyMsgBundle);
+            cache.put(fileSetKey, resultKey, compiledSources, getWeight(compiledSources));
+            metrics.increment("localesCompiled");
+        } else {
+            getLog().debug("Reusing JS compiled by an earlier build in this JVM: " + outputPath);
+            metrics.increment("cacheHits");
+        }
+
+        final Charset jsOutputCharset = Charset.forName(jsOutputCharsetName);
+        final List<Path> targetPaths = new ArrayList<>(soyFiles.size());
+        for (final Path soyFilePath : soyFiles) {
+            targetPaths.add(outputPath.resolve(Utils.changeSuffix(soyFilePath, SOY_EXTENSION, JS_EXTENSION)));
         }
+
+        if (jsCompact) {
+            // compaction is CPU bound, so the files of a locale are compacted in parallel as well
+            final List<String> sources = compiledSources;
+            try {
+                IntStream.range(0, sources.size()).parallel().forEach(i -> {
+                    try {
+                        writeCompactedJsOutput(targetPaths.get(i), sources.get(i), jsOutputCharset);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } else {
+            for (int i = 0; i < compiledSources.size(); i++) {
+                writeJsOutput(targetPaths.get(i), compiledSources.get(i), jsOutputCharset);
+            }
+        }
+
+        phase.close();
     }
 
-    private boolean isChanged(byte[] sourceDigestBytes)
-            throws NoSuchAlgorithmException, IOException, DecoderException {
+    /**
+     * Loads the bundle from the translation cache, parsing the XLIFF file only if its current content has not been
+     * cached yet.
+     */
+    private SoyMsgBundle loadTranslations(Path xliffFilePath, String fingerprint) throws IOException {
 
-        if (!jsOutputDirectory.exists()) {
-            return true;
+        final String cacheKey = TranslationCache.getKey(xliffFilePath, fingerprint);
+
+        try {
+            final SoyMsgBundle cached = translationCache.load(cacheKey);
+            if (cached != null) {
+                metrics.increment("translationCacheHits");
+                return cached;
+            }
+        } catch (IOException e) {
+            getLog().warn("Ignoring unreadable translation cache: " + e.getMessage());
         }
 
-        final Path statusFilePath = getStatusFilePath();
+        final SoyMsgBundleHandler smbh = new SoyMsgBundleHandler(new XliffMsgPlugin());
+        final SoyMsgBundle soyMsgBundle = smbh.createFromFile(translations.toPath().resolve(xliffFilePath).toFile());
+        metrics.increment("translationsParsed");
+
+        if (!translationCache.store(cacheKey, soyMsgBundle)) {
+            getLog().debug("Not caching translations with plural or select messages: " + xliffFilePath);
+        }
+
+        return soyMsgBundle;
+    }
+
+    private static List<String> getTranslationCacheKeys(BuildManifest manifest) {
+        final List<String> keys = new ArrayList<>();
+        for (final Map.Entry<Path, String> entry : manifest.getTranslations().entrySet()) {
+            keys.add(TranslationCache.getKey(entry.getKey(), entry.getValue()));
+        }
+        return keys;
+    }
+
+    private static long getWeight(Collection<String> values) {
+        long weight = 0;
+        for (final String value : values) {
+            weight += 2L * value.length();
+        }
+        return weight;
+    }
+
+    private StatCache readStatCache(Path statCacheFilePath) {
+        try {
+            return StatCache.read(statCacheFilePath);
+        } catch (IOException | RuntimeException e) {
+            getLog().warn("Ignoring unreadable stat cache: " + e.getMessage());
+            return new StatCache();
+        }
+    }
+
+    /**
+     * @return manifest of the previous build, or {@code null} if there is none or that build was interrupted while
+     * changing outputs
+     */
+    private BuildManifest readPreviousManifest(Path statusFilePath) {
+
+        if (Files.exists(interruptedMarkerPath)) {
+            getLog().warn("Previous build was interrupted, regenerating all JS and Java code.");
+            metrics.increment("interruptedBuildsRecovered");
+            return null;
+        }
+
+        return readManifest(statusFilePath);
+    }
+
+    private BuildManifest readManifest(Path statusFilePath) {
 
         if (!Files.exists(statusFilePath)) {
+            return null;
+        }
+
+        try {
+            return BuildManifest.read(statusFilePath);
+        } catch (IOException e) {
+            getLog().warn("Ignoring unreadable build manifest: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isChanged(BuildManifest previousManifest, byte[] sourceDigestBytes)
+            throws NoSuchAlgorithmException {
+
+        if (!jsOutputDirectory.exists() || !javaOutputDirectory.exists()) {
             return true;
         }
 
-        final byte[] targetDigestBytes = getGeneratedFilesDigest();
+        if (previousManifest == null) {
+            return true;
+        }
 
-        try (FileInputStream in = new FileInputStream(statusFilePath.toFile());
-             InputStreamReader inputStreamReader = new InputStreamReader(in);
-             BufferedReader reader = new BufferedReader(inputStreamReader)) {
-            return !Arrays.equals(sourceDigestBytes, Hex.decodeHex(reader.readLine().toCharArray())) ||
-                   !Arrays.equals(targetDigestBytes, Hex.decodeHex(reader.readLine().toCharArray()));
+        if (!getOptionsDigest().equals(previousManifest.getOptionsDigest())) {
+            return true;
         }
+
+        if (!Hex.encodeHexString(sourceDigestBytes).equals(previousManifest.getSourceDigest())) {
+            return true;
+        }
+
+        final Path basedir = project.getBasedir().toPath();
+
+        return previousManifest.getOutputs().entrySet().parallelStream()
+                .anyMatch(entry -> !entry.getValue().matches(basedir.resolve(entry.getKey())));
+    }
+
+    protected File getTranslations() {
+        return translations;
     }
 
-    private List<Path> getXliffFiles() throws IOException {
+    private FileTreeSnapshot getTranslationSnapshot() throws IOException {
         if (translations.exists()) {
-            return Utils.getFilesFromSubtree(translations.toPath(), XLIFF_EXTENSION);
+            return scan(translations);
         } else {
             getLog().info("Translations directory does not exist: " + translations);
-            return Collections.emptyList();
+            return FileTreeSnapshot.empty(translations.toPath());
         }
     }
 
@@ -272,39 +1505,99 @@ public class CompileMojo extends AbstractSoyMojo {
         return markersDirectory.toPath().resolve(Hex.encodeHexString(statusDigest.digest()));
     }
 
-    private byte[] getSourceDigestBytes(List<Path> soyFiles, List<Path> xliffFiles)
-            throws NoSuchAlgorithmException, IOException {
+    private static byte[] getSourceDigestBytes(Map<Path, String> sourceFingerprints,
+            Map<Path, String> translationFingerprints) throws NoSuchAlgorithmException {
         final MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
-        md.update(getFilesDigest(sources.toPath(), soyFiles));
-        md.update(getFilesDigest(translations.toPath(), xliffFiles));
+        md.update(getFingerprintsDigest(sourceFingerprints));
+        md.update(getFingerprintsDigest(translationFingerprints));
         return md.digest();
     }
 
-    private byte[] getGeneratedFilesDigest() throws IOException, NoSuchAlgorithmException {
+    private static byte[] getFingerprintsDigest(Map<Path, String> fingerprints) throws NoSuchAlgorithmException {
         final MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
-        md.update(getFilesDigest(jsOutputDirectory));
-        md.update(getFilesDigest(javaOutputDirectory));
+        for (final Map.Entry<Path, String> entry : fingerprints.entrySet()) {
+            updateDigest(md, entry.getKey().toString());
+            updateDigest(md, entry.getValue());
+        }
         return md.digest();
     }
 
-    private static byte[] getFilesDigest(File directory) throws IOException, NoSuchAlgorithmException {
-        final Path path = directory.toPath();
-        return getFilesDigest(path, Utils.getFilesFromSubtree(path));
+    private Map<Path, String> getFingerprints(FileTreeSnapshot snapshot, List<Path> files)
+            throws IOException, NoSuchAlgorithmException {
+        final Map<Path, String> fingerprints = new LinkedHashMap<>();
+        for (final Path file : files) {
+            fingerprints.put(file, getFileFingerprint(snapshot.getRoot().resolve(file), snapshot.getAttributes(file)));
+        }
+        return fingerprints;
     }
 
-    private static byte[] getFilesDigest(Path root, List<Path> files) throws IOException, NoSuchAlgorithmException {
+    private String getOptionsDigest() throws NoSuchAlgorithmException {
         final MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
-        Collections.sort(files);
-        for (final Path soyFilePath : files) {
-            updateDigest(root, md, soyFilePath);
+        updateDigest(md, javaPackage);
+        updateDigest(md, javaClassNameSource.name());
+        updateDigest(md, fingerprintMode.name());
+        updateDigest(md, jsOutputCharsetName);
+        updateDigest(md, StringUtils.defaultString(javaOutputCharsetName));
+        for (final OutputCompressor compressor : compressors) {
+            updateDigest(md, compressor.getName());
         }
-        return md.digest();
+        updateDigest(md, jsBundle ? "bundle:" + jsBundleSize : "");
+        updateDigest(md, jsCompact ? "compact:" + jsSourceMaps : "");
+        if (entryPoints != null) {
+            for (final String entryPoint : entryPoints) {
+                updateDigest(md, "entry:" + entryPoint.trim());
+            }
+        }
+        updateDigest(md, ReflectionToStringBuilder.toString(firstNonNull(jsSrcOptions, new SoyJsSrcOptions()),
+                ToStringStyle.SHORT_PREFIX_STYLE));
+        for (final Map.Entry<String, String> entry : getCompileTimeGlobals().entrySet()) {
+            updateDigest(md, entry.getKey());
+            updateDigest(md, entry.getValue());
+        }
+        return Hex.encodeHexString(md.digest());
     }
 
-    private static void updateDigest(Path root, MessageDigest sourceDigest, Path soyFilePath) throws IOException {
-        sourceDigest.update(soyFilePath.toString().getBytes(TEXT_DIGEST_CHARSET));
-        final Path soyFile = root.resolve(soyFilePath);
-        sourceDigest.update(Longs.toByteArray(Files.size(soyFile)));
-        sourceDigest.update(Longs.toByteArray(Files.getLastModifiedTime(soyFile).toMillis()));
+    /**
+     * Soy names a template in the code it generates by the file name alone, so with content fingerprints the file
+     * name tells templates apart well enough, and modules with the same templates in other directories share the
+     * results cached in the JVM.
+     */
+    @Override
+    protected String getFileSetKeyName(Path soyFilePath) {
+        if (fingerprintMode == FingerprintMode.CONTENT) {
+            return soyFilePath.getFileName().toString();
+        }
+        return super.getFileSetKeyName(soyFilePath);
+    }
+
+    private String getFileFingerprint(Path file, BasicFileAttributes attributes)
+            throws IOException, NoSuchAlgorithmException {
+        if (statCache != null) {
+            return statCache.getFingerprint(file, attributes);
+        }
+        final MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        md.update(Longs.toByteArray(attributes.size()));
+        md.update(Longs.toByteArray(attributes.lastModifiedTime().toMillis()));
+        return Hex.encodeHexString(md.digest());
+    }
+
+    private static void updateDigest(MessageDigest md, String value) {
+        md.update(value.getBytes(TEXT_DIGEST_CHARSET));
+        md.update((byte) 0);
+    }
+
+    private static final class Shard {
+
+        private final List<Path> soyFiles;
+
+        private final List<Path> dependencyFiles;
+
+        private final String fileSetKey;
+
+        private Shard(List<Path> soyFiles, List<Path> dependencyFiles, String fileSetKey) {
+            this.soyFiles = soyFiles;
+            this.dependencyFiles = dependencyFiles;
+            this.fileSetKey = fileSetKey;
+        }
     }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * File-level call graph of a template set. Namespaces and delegate template names are the nodes files provide and
+ * require; delegate calls depend on every file that defines a matching deltemplate.
+ */
+final class DependencyGraph {
+
+    private static final String DELTEMPLATE_PREFIX = "del:";
+
+    private final Map<Path, SoyFileDependencies> files;
+    private final Map<String, Set<Path>> providers = new HashMap<>();
+    private final Map<String, Set<Path>> consumers = new HashMap<>();
+
+    public DependencyGraph(Map<Path, SoyFileDependencies> files) {
+        this.files = files;
+        for (final Map.Entry<Path, SoyFileDependencies> entry : files.entrySet()) {
+            final Path path = entry.getKey();
+            for (final String symbol : getProvidedSymbols(entry.getValue())) {
+                providers.computeIfAbsent(symbol, k -> new LinkedHashSet<>()).add(path);
+            }
+            for (final String symbol : getRequiredSymbols(entry.getValue())) {
+                consumers.computeIfAbsent(symbol, k -> new LinkedHashSet<>()).add(path);
+            }
+        }
+    }
+
+    public static Set<String> getProvidedSymbols(SoyFileDependencies dependencies) {
+        final Set<String> symbols = new LinkedHashSet<>();
+        symbols.add(dependencies.getNamespace());
+        for (final String deltemplate : dependencies.getDeltemplates()) {
+            symbols.add(DELTEMPLATE_PREFIX + deltemplate);
+        }
+        return symbols;
+    }
+
+    public static Set<String> getRequiredSymbols(SoyFileDependencies dependencies) {
+        final Set<String> symbols = new LinkedHashSet<>(dependencies.getCalledNamespaces());
+        for (final String delcall : dependencies.getDelcalls()) {
+            symbols.add(DELTEMPLATE_PREFIX + delcall);
+        }
+        return symbols;
+    }
+
+    public Set<Path> getFiles() {
+        return Collections.unmodifiableSet(files.keySet());
+    }
+
+    public SoyFileDependencies getDependencies(Path file) {
+        return files.get(file);
+    }
+
+    public Set<Path> getDirectDependencies(Path file) {
+        final Set<Path> result = new LinkedHashSet<>();
+        for (final String symbol : getRequiredSymbols(files.get(file))) {
+            result.addAll(providers.getOrDefault(symbol, Collections.emptySet()));
+        }
+        result.remove(file);
+        return result;
+    }
+
+    public Set<Path> getDirectDependents(Path file) {
+        return getConsumers(getProvidedSymbols(files.get(file)));
+    }
+
+    public Set<Path> getConsumers(Collection<String> symbols) {
+        final Set<Path> result = new LinkedHashSet<>();
+        for (final String symbol : symbols) {
+            result.addAll(consumers.getOrDefault(symbol, Collections.emptySet()));
+        }
+        return result;
+    }
+
+    /**
+     * An entry point is a namespace, or the full name of a template, standing for the file that defines it. A name
+     * is only taken for a template when it is not a namespace itself.
+     *
+     * @return files providing the entry point
+     */
+    public Set<Path> getEntryPointFiles(String entryPoint) {
+        final Set<Path> result = getNamespaceFiles(entryPoint);
+        if (result.isEmpty()) {
+            final int lastDot = entryPoint.lastIndexOf('.');
+            if (lastDot > 0) {
+                result.addAll(getNamespaceFiles(entryPoint.substring(0, lastDot)));
+            }
+        }
+        return result;
+    }
+
+    private Set<Path> getNamespaceFiles(String namespace) {
+        final Set<Path> result = new LinkedHashSet<>();
+        for (final Map.Entry<Path, SoyFileDependencies> entry : files.entrySet()) {
+            final String fileNamespace = entry.getValue().getNamespace();
+            if (!fileNamespace.isEmpty() && fileNamespace.equals(namespace)) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the given files together with every file that transitively calls into them
+     */
+    public Set<Path> getDependentsClosure(Collection<Path> roots) {
+        final Set<Path> result = new LinkedHashSet<>(roots);
+        final Deque<Path> queue = new ArrayDeque<>(roots);
+        while (!queue.isEmpty()) {
+            for (final Path dependent : getDirectDependents(queue.removeFirst())) {
+                if (result.add(dependent)) {
+                    queue.addLast(dependent);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the given files together with every file they transitively call into
+     */
+    public Set<Path> getDependenciesClosure(Collection<Path> roots) {
+        final Set<Path> result = new LinkedHashSet<>(roots);
+        final Deque<Path> queue = new ArrayDeque<>(roots);
+        while (!queue.isEmpty()) {
+            for (final Path dependency : getDirectDependencies(queue.removeFirst())) {
+                if (result.add(dependency)) {
+                    queue.addLast(dependency);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the given files ordered so that every file comes after the files it calls into, except within cycles
+     */
+    public List<Path> getLoadOrder(List<Path> roots) {
+        final Set<Path> included = new HashSet<>(roots);
+        final Set<Path> visited = new HashSet<>();
+        final List<Path> result = new ArrayList<>(roots.size());
+        for (final Path file : roots) {
+            visit(file, included, visited, result);
+        }
+        return result;
+    }
+
+    private void visit(Path file, Set<Path> included, Set<Path> visited, List<Path> result) {
+        if (visited.add(file)) {
+            for (final Path dependency : getDirectDependencies(file)) {
+                if (included.contains(dependency)) {
+                    visit(dependency, included, visited, result);
+                }
+            }
+            result.add(file);
+        }
+    }
+
+    public static List<Path> ordered(Collection<Path> files, Collection<Path> order) {
+        final List<Path> result = new ArrayList<>(files.size());
+        for (final Path path : order) {
+            if (files.contains(path)) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+}
@@ -21,32 +21,68 @@ package codes.writeonce.maven.plugins.soy;
 
 import com.google.template.soy.msgs.SoyMsgBundle;
 import com.google.template.soy.msgs.SoyMsgBundleHandler;
+import com.google.template.soy.msgs.restricted.SoyMsg;
 import com.google.template.soy.xliffmsgplugin.XliffMsgPlugin;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 @Mojo(name = "extract-messages")
 public class ExtractMessagesMojo extends AbstractSoyMojo {
 
     private static final String DEFAULT_XLIFF_OUTPUT_PATH = "src/main/i18n/";
 
+    private static final String MESSAGES_RESULT_KEY = "messages";
+
+    private static final long MESSAGE_WEIGHT = 512;
+
+    private static final String MESSAGE_CACHE_FILE_NAME = "extracted-messages.cache";
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
     @Parameter(required = true, property = "soy.messages.sourceLocale")
     private String sourceLocale;
 
-    @Parameter(required = true, property = "soy.messages.targetLocale")
+    @Parameter(property = "soy.messages.targetLocale")
     private String targetLocale;
 
+    @Parameter
+    private List<String> targetLocales;
+
     @Parameter
     private File outputFile;
 
+    @Parameter
+    private File outputDirectory;
+
     @Parameter(required = true, defaultValue = "false", property = "soy.messages.overwrite")
     private boolean overwrite;
 
+    @Parameter(defaultValue = "false", property = "soy.messages.incremental")
+    private boolean incremental;
+
+    @Parameter(required = true, defaultValue = "${project.build.directory}/soy-maven-plugin-markers")
+    private File markersDirectory;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         try {
@@ -64,32 +100,227 @@ public class ExtractMessagesMojo extends AbstractSoyMojo {
 
         super.process();
 
-        if (outputFile == null) {
-            outputFile = new File(DEFAULT_XLIFF_OUTPUT_PATH + targetLocale + XLIFF_EXTENSION);
-        }
+        final Map<String, File> outputFiles = getOutputFiles();
 
-        outputFile = getSafePath(outputFile);
+        if (incremental) {
+            markersDirectory = getSafePath(markersDirectory);
+            extractIncrementally(outputFiles);
+            return;
+        }
 
-        if (Files.exists(outputFile.toPath())) {
-            if (overwrite) {
-                getLog().info("Overwriting the existing file: " + outputFile);
+        for (final File file : outputFiles.values()) {
+            if (Files.exists(file.toPath())) {
+                if (overwrite) {
+                    getLog().info("Overwriting the existing file: " + file);
+                } else {
+                    getLog().error("File already exists: " + file);
+                    throw new MojoExecutionException("File already exists: " + file);
+                }
             } else {
-                getLog().error("File already exists: " + outputFile);
-                throw new MojoExecutionException("File already exists: " + outputFile);
+                getLog().info("Generating the messages file: " + file);
             }
+        }
+
+        final List<Path> soyFiles = getSoyFiles();
+        final String fileSetKey = getFileSetKey(soyFiles, Collections.emptyList(), getContentFingerprints(soyFiles));
+        final SoyFileSetCache cache = getFileSetCache();
+
+        SoyMsgBundle extracted = cache.get(fileSetKey, MESSAGES_RESULT_KEY);
+        if (extracted == null) {
+            extracted = getSoyFileSet(soyFiles).extractMsgs();
+            cache.put(fileSetKey, MESSAGES_RESULT_KEY, extracted, MESSAGE_WEIGHT * extracted.getNumMsgs());
         } else {
-            getLog().info("Generating the messages file: " + outputFile);
+            getLog().debug("Reusing messages extracted by an earlier build in this JVM.");
+        }
+
+        final SoyMsgBundle soyMsgBundle = extracted;
+        final List<Callable<Void>> tasks = new ArrayList<>(outputFiles.size());
+        for (final Map.Entry<String, File> entry : outputFiles.entrySet()) {
+            tasks.add(() -> {
+                final SoyMsgBundleHandler.OutputFileOptions options = new SoyMsgBundleHandler.OutputFileOptions();
+                options.setSourceLocaleString(sourceLocale);
+
+                if (entry.getKey().length() > 0) {
+                    options.setTargetLocaleString(entry.getKey());
+                }
+
+                final SoyMsgBundleHandler msgBundleHandler = new SoyMsgBundleHandler(new XliffMsgPlugin());
+                msgBundleHandler.writeToExtractedMsgsFile(soyMsgBundle, options, entry.getValue());
+                return null;
+            });
         }
 
-        final SoyMsgBundleHandler.OutputFileOptions options = new SoyMsgBundleHandler.OutputFileOptions();
-        options.setSourceLocaleString(sourceLocale);
+        invokeAll(tasks);
+    }
+
+    /**
+     * @return output file of every target locale, in the order the locales were configured
+     */
+    private Map<String, File> getOutputFiles() throws MojoExecutionException {
+
+        final List<String> locales = new ArrayList<>();
+        if (targetLocale != null) {
+            locales.add(targetLocale);
+        }
+        if (targetLocales != null) {
+            for (final String locale : targetLocales) {
+                if (!locales.contains(locale)) {
+                    locales.add(locale);
+                }
+            }
+        }
+
+        if (locales.isEmpty()) {
+            throw new MojoExecutionException("No target locale specified, set targetLocale or targetLocales");
+        }
+
+        if (outputFile != null && locales.size() > 1) {
+            throw new MojoExecutionException(
+                    "outputFile can only be used with a single target locale, use outputDirectory instead");
+        }
 
-        if (targetLocale.length() > 0) {
-            options.setTargetLocaleString(targetLocale);
+        final File directory = outputDirectory == null ? new File(DEFAULT_XLIFF_OUTPUT_PATH) : outputDirectory;
+        final Map<String, File> outputFiles = new LinkedHashMap<>();
+        for (final String locale : locales) {
+            final File file = outputFile == null ? new File(directory, locale + XLIFF_EXTENSION) : outputFile;
+            outputFiles.put(locale, getSafePath(file));
         }
+        return outputFiles;
+    }
+
+    private void invokeAll(List<Callable<Void>> tasks) throws IOException {
+        if (tasks.size() == 1) {
+            try {
+                tasks.get(0).call();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        } else {
+            getLog().info("Writing " + tasks.size() + " messages files using " +
+                          ParallelExecutor.getPoolSize(threads) + " threads.");
+            try (ParallelExecutor executor = new ParallelExecutor(threads)) {
+                executor.invokeAll(tasks);
+            }
+        }
+    }
+
+    /**
+     * Parses only the templates whose content changed since the previous run and merges the messages into the
+     * output files, keeping the translations they already have for messages that still exist.
+     */
+    private void extractIncrementally(Map<String, File> outputFiles) throws Exception {
+
+        final List<Path> soyFiles = getSoyFiles();
+        final Map<Path, String> fingerprints = getContentFingerprints(soyFiles);
+        final Path cacheFile = markersDirectory.toPath().resolve(MESSAGE_CACHE_FILE_NAME);
+        final String cacheKey = getMessageCacheKey();
+        final MessageCache previousCache = readMessageCache(cacheFile, cacheKey);
 
-        final SoyMsgBundleHandler msgBundleHandler = new SoyMsgBundleHandler(new XliffMsgPlugin());
-        final SoyMsgBundle soyMsgBundle = getSoyFileSet(getSoyFiles()).extractMsgs();
-        msgBundleHandler.writeToExtractedMsgsFile(soyMsgBundle, options, outputFile);
+        final List<Path> changedFiles = new ArrayList<>();
+        for (final Path soyFile : soyFiles) {
+            if (previousCache.get(soyFile, fingerprints.get(soyFile)) == null) {
+                changedFiles.add(soyFile);
+            }
+        }
+
+        getLog().info("Extracting messages from " + changedFiles.size() + " of " + soyFiles.size() +
+                      " template files");
+
+        final Map<Path, List<ExtractedMessage>> extracted = extract(changedFiles);
+        final MessageCache cache = new MessageCache(cacheKey);
+        final Map<Long, ExtractedMessage> messages = new TreeMap<>();
+
+        for (final Path soyFile : soyFiles) {
+            final String fingerprint = fingerprints.get(soyFile);
+            List<ExtractedMessage> fileMessages = previousCache.get(soyFile, fingerprint);
+            if (fileMessages == null) {
+                fileMessages = extracted.getOrDefault(soyFile, Collections.emptyList());
+            }
+            cache.put(soyFile, fingerprint, fileMessages);
+            for (final ExtractedMessage message : fileMessages) {
+                messages.putIfAbsent(message.getId(), message);
+            }
+        }
+
+        final List<Callable<Void>> tasks = new ArrayList<>(outputFiles.size());
+        for (final Map.Entry<String, File> entry : outputFiles.entrySet()) {
+            tasks.add(() -> {
+                merge(entry.getKey(), entry.getValue().toPath(), messages.values());
+                return null;
+            });
+        }
+
+        invokeAll(tasks);
+
+        cache.write(cacheFile);
+    }
+
+    private void merge(String locale, Path outputPath, Collection<ExtractedMessage> messages) throws IOException {
+
+        final Map<String, String> targets;
+        if (Files.exists(outputPath)) {
+            targets = XliffFile.readTargets(outputPath);
+        } else {
+            targets = Collections.emptyMap();
+        }
+
+        final String content = XliffFile.toString(sourceLocale, locale, messages, targets);
+        if (OutputWriter.write(outputPath, content, StandardCharsets.UTF_8)) {
+            getLog().info("Updated the messages file: " + outputPath);
+        } else {
+            getLog().info("Messages file is up to date: " + outputPath);
+        }
+    }
+
+    private Map<Path, List<ExtractedMessage>> extract(List<Path> soyFiles) throws IOException {
+
+        final Map<Path, List<ExtractedMessage>> result = new HashMap<>();
+        if (soyFiles.isEmpty()) {
+            return result;
+        }
+
+        final Map<String, Path> filesByLocation = new HashMap<>();
+        for (final Path soyFile : soyFiles) {
+            filesByLocation.put(sources.toPath().resolve(soyFile).toFile().getPath(), soyFile);
+        }
+
+        for (final SoyMsg message : getSoyFileSet(soyFiles).extractMsgs()) {
+            final ExtractedMessage extractedMessage = XliffFile.toExtractedMessage(message);
+            for (final String sourcePath : message.getSourcePaths()) {
+                final Path soyFile = filesByLocation.get(sourcePath);
+                if (soyFile != null) {
+                    final List<ExtractedMessage> fileMessages =
+                            result.computeIfAbsent(soyFile, k -> new ArrayList<>());
+                    if (!fileMessages.contains(extractedMessage)) {
+                        fileMessages.add(extractedMessage);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private MessageCache readMessageCache(Path cacheFile, String cacheKey) {
+        try {
+            return MessageCache.read(cacheFile, cacheKey);
+        } catch (IOException | RuntimeException e) {
+            getLog().warn("Ignoring unreadable message cache: " + e.getMessage());
+            return new MessageCache(cacheKey);
+        }
+    }
+
+    private String getMessageCacheKey() throws NoSuchAlgorithmException {
+        final MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        md.update(sources.getPath().getBytes(StandardCharsets.UTF_8));
+        for (final Map.Entry<String, String> entry : getCompileTimeGlobals().entrySet()) {
+            md.update((byte) 0);
+            md.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        return Hex.encodeHexString(md.digest());
     }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.util.Objects;
+
+/**
+ * A message extracted from a template, reduced to what goes into an XLIFF trans-unit.
+ */
+final class ExtractedMessage {
+
+    private final long id;
+
+    private final String meaning;
+
+    private final String description;
+
+    private final String datatype;
+
+    private final String source;
+
+    /**
+     * @param source content of the XLIFF {@code source} element, already escaped
+     */
+    public ExtractedMessage(long id, String meaning, String description, String datatype, String source) {
+        this.id = id;
+        this.meaning = meaning;
+        this.description = description;
+        this.datatype = datatype;
+        this.source = source;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getMeaning() {
+        return meaning;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getDatatype() {
+        return datatype;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final ExtractedMessage that = (ExtractedMessage) o;
+        return id == that.id &&
+               Objects.equals(meaning, that.meaning) &&
+               Objects.equals(description, that.description) &&
+               Objects.equals(datatype, that.datatype) &&
+               Objects.equals(source, that.source);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, meaning, description, datatype, source);
+    }
+}
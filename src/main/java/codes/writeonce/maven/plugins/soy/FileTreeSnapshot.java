@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Regular files of a directory tree together with their attributes, read once per file. Subdirectories are scanned
+ * as separate fork-join tasks. Symbolic links are followed, except links back to a directory that is already on the
+ * current path, which are reported instead of looping forever.
+ */
+final class FileTreeSnapshot {
+
+    private final Path root;
+
+    private final SortedMap<Path, BasicFileAttributes> files;
+
+    private final List<Path> loops;
+
+    private FileTreeSnapshot(Path root, SortedMap<Path, BasicFileAttributes> files, List<Path> loops) {
+        this.root = root;
+        this.files = Collections.unmodifiableSortedMap(files);
+        this.loops = Collections.unmodifiableList(loops);
+    }
+
+    public static FileTreeSnapshot empty(Path root) {
+        return new FileTreeSnapshot(root, new ConcurrentSkipListMap<>(), Collections.emptyList());
+    }
+
+    public static FileTreeSnapshot scan(Path root) throws IOException {
+
+        final BasicFileAttributes rootAttributes;
+        try {
+            rootAttributes = Files.readAttributes(root, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new IOException("Not a directory: " + root, e);
+        }
+        if (!rootAttributes.isDirectory()) {
+            throw new IOException("Not a directory: " + root);
+        }
+
+        final ConcurrentSkipListMap<Path, BasicFileAttributes> files = new ConcurrentSkipListMap<>();
+        final ConcurrentLinkedQueue<Path> loops = new ConcurrentLinkedQueue<>();
+
+        try {
+            ForkJoinPool.commonPool().invoke(new DirectoryTask(root, root,
+                    Collections.singleton(getDirectoryKey(root, rootAttributes)), files, loops));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        final List<Path> sortedLoops = new ArrayList<>(loops);
+        Collections.sort(sortedLoops);
+        return new FileTreeSnapshot(root, files, sortedLoops);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return all regular files, relative to the root, in sorted order
+     */
+    public List<Path> getFiles() {
+        return new ArrayList<>(files.keySet());
+    }
+
+    /**
+     * @return regular files whose name ends with the given suffix, relative to the root, in sorted order
+     */
+    public List<Path> getFiles(String nameSuffix) {
+        final List<Path> result = new ArrayList<>();
+        for (final Path path : files.keySet()) {
+            if (path.getFileName().toString().endsWith(nameSuffix)) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    public BasicFileAttributes getAttributes(Path path) {
+        return files.get(path);
+    }
+
+    /**
+     * @return symbolic links that were not followed because they lead back to one of their parent directories
+     */
+    public List<Path> getLoops() {
+        return loops;
+    }
+
+    private static Object getDirectoryKey(Path directory, BasicFileAttributes attributes) throws IOException {
+        final Object fileKey = attributes.fileKey();
+        return fileKey == null ? directory.toRealPath() : fileKey;
+    }
+
+    private static final class DirectoryTask extends RecursiveAction {
+
+        private final Path root;
+
+        private final Path directory;
+
+        private final Set<Object> ancestors;
+
+        private final Map<Path, BasicFileAttributes> files;
+
+        private final ConcurrentLinkedQueue<Path> loops;
+
+        private DirectoryTask(Path root, Path directory, Set<Object> ancestors, Map<Path, BasicFileAttributes> files,
+                ConcurrentLinkedQueue<Path> loops) {
+            this.root = root;
+            this.directory = directory;
+            this.ancestors = ancestors;
+            this.files = files;
+            this.loops = loops;
+        }
+
+        @Override
+        protected void compute() {
+
+            final List<DirectoryTask> subtasks = new ArrayList<>();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (final Path entry : stream) {
+                    final BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (NoSuchFileException e) {
+                        // dangling symbolic link, or deleted while scanning
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        final Object key = getDirectoryKey(entry, attributes);
+                        if (ancestors.contains(key)) {
+                            loops.add(root.relativize(entry));
+                        } else {
+                            final Set<Object> subtaskAncestors = new HashSet<>(ancestors);
+                            subtaskAncestors.add(key);
+                            subtasks.add(new DirectoryTask(root, entry, subtaskAncestors, files, loops));
+                        }
+                    } else if (attributes.isRegularFile()) {
+                        files.put(root.relativize(entry), attributes);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            invokeAll(subtasks);
+        }
+    }
+}
@@ -19,6 +19,9 @@
 
 package codes.writeonce.maven.plugins.soy;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public enum JavaClassNameSource {
 
     /**
@@ -36,6 +39,18 @@ public enum JavaClassNameSource {
      */
     GENERIC("generic");
 
+    private static final String SOY_EXTENSION = ".soy";
+
+    private static final String CLASS_NAME_SUFFIX = "SoyInfo";
+
+    private static final Pattern ALL_UPPER_WORD =
+            Pattern.compile("(?<= [^A-Za-z] | ^)  [A-Z]+  (?= [^A-Za-z] | $)", Pattern.COMMENTS);
+
+    private static final Pattern ALL_LOWER_WORD =
+            Pattern.compile("(?<= [^A-Za-z] | ^)  [a-z]+  (?= [^a-z] | $)", Pattern.COMMENTS);
+
+    private static final Pattern NON_LETTER_DIGIT = Pattern.compile("[^A-Za-z0-9]");
+
     private final String value;
 
     JavaClassNameSource(String value) {
@@ -46,4 +61,49 @@ public enum JavaClassNameSource {
     public String getValue() {
         return value;
     }
+
+    /**
+     * Name of the parse info class Soy generates for a template file, unless other files of the same file set get the
+     * same name, in which case Soy appends a number to each of them.
+     *
+     * @param fileName  name of the template file, without its directory
+     * @param namespace namespace of the template file
+     */
+    public String getClassName(String fileName, String namespace) {
+        switch (this) {
+            case SOY_FILE_NAME:
+                final String baseName = fileName.toLowerCase().endsWith(SOY_EXTENSION)
+                        ? fileName.substring(0, fileName.length() - SOY_EXTENSION.length())
+                        : fileName;
+                return makeUpperCamelCase(baseName) + CLASS_NAME_SUFFIX;
+            case SOY_NAMESPACE_LAST_PART:
+                return makeUpperCamelCase(namespace.substring(namespace.lastIndexOf('.') + 1)) + CLASS_NAME_SUFFIX;
+            default:
+                return "File" + CLASS_NAME_SUFFIX;
+        }
+    }
+
+    /**
+     * Same conversion as in Soy's {@code GenerateParseInfoVisitor}.
+     */
+    private static String makeUpperCamelCase(String name) {
+        final String capitalized = makeWordsCapitalized(makeWordsCapitalized(name, ALL_UPPER_WORD), ALL_LOWER_WORD);
+        return NON_LETTER_DIGIT.matcher(capitalized).replaceAll("");
+    }
+
+    private static String makeWordsCapitalized(String name, Pattern wordPattern) {
+        final StringBuffer result = new StringBuffer();
+        final Matcher matcher = wordPattern.matcher(name);
+        while (matcher.find()) {
+            final String word = matcher.group();
+            final StringBuilder capitalizedWord = new StringBuilder(word.length());
+            capitalizedWord.append(Character.toUpperCase(word.charAt(0)));
+            for (int i = 1; i < word.length(); i++) {
+                capitalizedWord.append(Character.toLowerCase(word.charAt(i)));
+            }
+            matcher.appendReplacement(result, Matcher.quoteReplacement(capitalizedWord.toString()));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Concatenates the compiled templates of a locale into bundles of bounded size, named after the hash of their content
+ * so that they can be cached indefinitely. The manifest maps every template to its bundle and byte range.
+ */
+final class JsBundler {
+
+    public static final String MANIFEST_FILE = "bundles.json";
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private static final String BUNDLE_PREFIX = "soy.";
+
+    private static final String BUNDLE_EXTENSION = ".js";
+
+    private static final int BUNDLE_HASH_LENGTH = 16;
+
+    private final long maximumSize;
+
+    private final byte[] separator;
+
+    private final List<Bundle> bundles = new ArrayList<>();
+
+    /**
+     * @param maximumSize size in bytes a bundle is not to exceed unless it holds a single template, or {@code 0} for
+     *                    a single bundle
+     * @param separator   bytes put between templates
+     */
+    public JsBundler(long maximumSize, ByteBuffer separator) {
+        this.maximumSize = maximumSize;
+        this.separator = new byte[separator.remaining()];
+        separator.duplicate().get(this.separator);
+    }
+
+    /**
+     * Appends a template to the last bundle, or to a new one if the last would grow beyond the maximum size.
+     */
+    public void add(String namespace, Path file, byte[] content) throws NoSuchAlgorithmException {
+
+        Bundle bundle = bundles.isEmpty() ? null : bundles.get(bundles.size() - 1);
+        if (bundle == null || maximumSize > 0 && bundle.content.size() > 0 &&
+                              bundle.content.size() + separator.length + content.length > maximumSize) {
+            bundle = new Bundle();
+            bundles.add(bundle);
+        }
+
+        if (bundle.content.size() > 0) {
+            bundle.content.write(separator, 0, separator.length);
+        }
+        bundle.templates.add(new Template(namespace, file, bundle.content.size(), content.length, hash(content)));
+        bundle.content.write(content, 0, content.length);
+    }
+
+    /**
+     * @return bundle contents keyed by their file names, in load order
+     */
+    public Map<String, ByteBuffer> getBundles() throws NoSuchAlgorithmException {
+        final Map<String, ByteBuffer> result = new LinkedHashMap<>();
+        for (final Bundle bundle : bundles) {
+            result.put(bundle.getFileName(), ByteBuffer.wrap(bundle.content.toByteArray()));
+        }
+        return result;
+    }
+
+    public String getManifest() throws IOException, NoSuchAlgorithmException {
+
+        final StringWriter out = new StringWriter();
+
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+
+            writer.name("bundles").beginArray();
+            for (final Bundle bundle : bundles) {
+                writer.beginObject()
+                        .name("file").value(bundle.getFileName())
+                        .name("size").value(bundle.content.size())
+                        .name("hash").value(bundle.getHash())
+                        .endObject();
+            }
+            writer.endArray();
+
+            writer.name("templates").beginArray();
+            for (final Bundle bundle : bundles) {
+                for (final Template template : bundle.templates) {
+                    writer.beginObject()
+                            .name("namespace").value(template.namespace)
+                            .name("file").value(Utils.toSlashSeparated(template.file))
+                            .name("bundle").value(bundle.getFileName())
+                            .name("offset").value(template.offset)
+                            .name("length").value(template.length)
+                            .name("hash").value(template.hash)
+                            .endObject();
+                }
+            }
+            writer.endArray();
+
+            writer.endObject();
+        }
+
+        return out.toString();
+    }
+
+    private static String hash(byte[] content) throws NoSuchAlgorithmException {
+        return Hex.encodeHexString(MessageDigest.getInstance(HASH_ALGORITHM).digest(content));
+    }
+
+    private static final class Bundle {
+
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        private final List<Template> templates = new ArrayList<>();
+
+        private String hash;
+
+        private String getHash() throws NoSuchAlgorithmException {
+            if (hash == null) {
+                hash = JsBundler.hash(content.toByteArray());
+            }
+            return hash;
+        }
+
+        private String getFileName() throws NoSuchAlgorithmException {
+            return BUNDLE_PREFIX + getHash().substring(0, BUNDLE_HASH_LENGTH) + BUNDLE_EXTENSION;
+        }
+    }
+
+    private static final class Template {
+
+        private final String namespace;
+
+        private final Path file;
+
+        private final long offset;
+
+        private final long length;
+
+        private final String hash;
+
+        private Template(String namespace, Path file, long offset, long length, String hash) {
+            this.namespace = namespace;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conservative compaction of generated JS: comments, indentation, blank lines and repeated spaces are removed, while
+ * line breaks are kept so that automatic semicolon insertion works the same. Comments marked with {@code /*!},
+ * {@code @license} or {@code @preserve} are kept. Type annotations in comments are lost, so compacted output is not
+ * meant for the Closure Compiler.
+ * <p>
+ * As every output line is a trimmed input line, the source map needs a single segment per line.
+ */
+final class JsCompactor {
+
+    private static final String BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    private static final String REGEX_PRECEDING_CHARACTERS = "(,=:[!&|?{};*%<>~^";
+
+    private static final String SOURCE_MAPPING_URL = "//# sourceMappingURL=";
+
+    private static final String[] REGEX_PRECEDING_KEYWORDS =
+            {"return", "typeof", "case", "do", "else", "in", "instanceof", "new", "delete", "void", "throw"};
+
+    private final String source;
+
+    private final StringBuilder code = new StringBuilder();
+
+    private final StringBuilder line = new StringBuilder();
+
+    private final List<int[]> mappings = new ArrayList<>();
+
+    private int position;
+
+    private int sourceLine;
+
+    private int sourceLineStart;
+
+    private int lineSourceLine = -1;
+
+    private int lineSourceColumn;
+
+    private char lastSignificant;
+
+    private JsCompactor(String source) {
+        this.source = source;
+    }
+
+    /**
+     * @param fileName   name of the compacted file, referenced from its source map
+     * @param sourceName name the uncompacted code is shown under in the source map
+     * @return compacted code, followed by its source map if requested, or {@code null} if the code could not be
+     * tokenized
+     */
+    public static String[] compact(String source, String fileName, String sourceName, boolean sourceMap)
+            throws IOException {
+
+        final JsCompactor compactor = new JsCompactor(source);
+        if (!compactor.run()) {
+            return null;
+        }
+
+        if (!sourceMap) {
+            return new String[]{compactor.code.toString()};
+        }
+
+        compactor.code.append(SOURCE_MAPPING_URL).append(fileName).append(".map\n");
+        return new String[]{compactor.code.toString(), compactor.getSourceMap(fileName, sourceName)};
+    }
+
+    /**
+     * @return compacted code without the reference to its source map on the last line, if any
+     */
+    public static String removeSourceMappingUrl(String code) {
+        final int start = code.lastIndexOf(SOURCE_MAPPING_URL);
+        if (start < 0 || start > 0 && code.charAt(start - 1) != '\n' || code.indexOf('\n', start) < code.length() - 1) {
+            return code;
+        }
+        return code.substring(0, start);
+    }
+
+    private boolean run() {
+
+        while (position < source.length()) {
+            final char c = source.charAt(position);
+            if (c == '\n') {
+                position++;
+                newLine();
+                endLine();
+            } else if (c == ' ' || c == '\t' || c == '\r' || c == '\f') {
+                position++;
+                if (line.length() > 0 && line.charAt(line.length() - 1) != ' ') {
+                    line.append(' ');
+                }
+            } else if (c == '"' || c == '\'' || c == '`') {
+                if (!copyQuoted(c)) {
+                    return false;
+                }
+            } else if (c == '/' && source.startsWith("//", position)) {
+                while (position < source.length() && source.charAt(position) != '\n') {
+                    position++;
+                }
+            } else if (c == '/' && source.startsWith("/*", position)) {
+                if (!skipBlockComment()) {
+                    return false;
+                }
+            } else if (c == '/' && isRegexAllowed()) {
+                if (!copyRegex()) {
+                    return false;
+                }
+            } else {
+                append(c);
+                lastSignificant = c;
+                position++;
+            }
+        }
+
+        endLine();
+        return true;
+    }
+
+    private boolean copyQuoted(char quote) {
+        final int start = position;
+        mark(start);
+        position++;
+        while (position < source.length()) {
+            final char c = source.charAt(position);
+            if (c == '\\') {
+                if (source.startsWith("\n", position + 1)) {
+                    newLine(position + 2);
+                }
+                position += 2;
+                continue;
+            }
+            if (c == '\n') {
+                if (quote != '`') {
+                    return false;
+                }
+                newLine(position + 1);
+            }
+            position++;
+            if (c == quote) {
+                line.append(source, start, position);
+                lastSignificant = quote;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean copyRegex() {
+        final int start = position;
+        mark(start);
+        boolean inClass = false;
+        position++;
+        while (position < source.length()) {
+            final char c = source.charAt(position);
+            if (c == '\n') {
+                return false;
+            }
+            position++;
+            if (c == '\\') {
+                position++;
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (c == '/' && !inClass) {
+                line.append(source, start, position);
+                lastSignificant = '/';
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean skipBlockComment() {
+
+        final int start = position;
+        final int end = source.indexOf("*/", position + 2);
+        if (end < 0) {
+            return false;
+        }
+        position = end + 2;
+
+        final String comment = source.substring(start, position);
+        if (comment.startsWith("/*!") || comment.contains("@license") || comment.contains("@preserve")) {
+            mark(start);
+            line.append(comment);
+            for (int i = start; i < position; i++) {
+                if (source.charAt(i) == '\n') {
+                    newLine(i + 1);
+                }
+            }
+            return true;
+        }
+
+        boolean multiline = false;
+        for (int i = start; i < position; i++) {
+            if (source.charAt(i) == '\n') {
+                newLine(i + 1);
+                multiline = true;
+            }
+        }
+
+        if (multiline) {
+            endLine();
+        } else if (line.length() > 0 && line.charAt(line.length() - 1) != ' ') {
+            line.append(' ');
+        }
+        return true;
+    }
+
+    private boolean isRegexAllowed() {
+
+        if (lastSignificant == 0 || REGEX_PRECEDING_CHARACTERS.indexOf(lastSignificant) >= 0) {
+            return true;
+        }
+
+        final StringBuilder text = line.length() > 0 ? line : code;
+        int end = text.length();
+        while (end > 0 && (text.charAt(end - 1) == ' ' || text.charAt(end - 1) == '\n')) {
+            end--;
+        }
+
+        // an operand follows a binary or unary plus or minus, but a division follows a postfix increment or decrement
+        if (lastSignificant == '+' || lastSignificant == '-') {
+            return end < 2 || text.charAt(end - 2) != lastSignificant;
+        }
+
+        if (!Character.isJavaIdentifierPart(lastSignificant)) {
+            return false;
+        }
+
+        int start = end;
+        while (start > 0 && Character.isJavaIdentifierPart(text.charAt(start - 1))) {
+            start--;
+        }
+        final String word = text.substring(start, end);
+        for (final String keyword : REGEX_PRECEDING_KEYWORDS) {
+            if (keyword.equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void append(char c) {
+        mark(position);
+        line.append(c);
+    }
+
+    /**
+     * Records the source position of the output line if the token starting at the given offset is its first one.
+     */
+    private void mark(int start) {
+        if (line.length() == 0) {
+            lineSourceLine = sourceLine;
+            lineSourceColumn = start - sourceLineStart;
+        }
+    }
+
+    private void newLine() {
+        newLine(position);
+    }
+
+    private void newLine(int nextLineStart) {
+        sourceLine++;
+        sourceLineStart = nextLineStart;
+    }
+
+    private void endLine() {
+        int length = line.length();
+        while (length > 0 && line.charAt(length - 1) == ' ') {
+            length--;
+        }
+        if (length > 0) {
+            code.append(line, 0, length).append('\n');
+            mappings.add(new int[]{lineSourceLine, lineSourceColumn});
+            // line breaks kept inside template literals and preserved comments
+            int embeddedLine = lineSourceLine;
+            for (int i = 0; i < length; i++) {
+                if (line.charAt(i) == '\n') {
+                    mappings.add(new int[]{++embeddedLine, 0});
+                }
+            }
+        }
+        line.setLength(0);
+    }
+
+    private String getSourceMap(String fileName, String sourceName) throws IOException {
+
+        final StringBuilder encoded = new StringBuilder();
+        int previousLine = 0;
+        int previousColumn = 0;
+        for (final int[] mapping : mappings) {
+            if (encoded.length() > 0) {
+                encoded.append(';');
+            }
+            encodeVlq(encoded, 0);
+            encodeVlq(encoded, 0);
+            encodeVlq(encoded, mapping[0] - previousLine);
+            encodeVlq(encoded, mapping[1] - previousColumn);
+            previousLine = mapping[0];
+            previousColumn = mapping[1];
+        }
+
+        final StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject()
+                    .name("version").value(3)
+                    .name("file").value(fileName)
+                    .name("sources").beginArray().value(sourceName).endArray()
+                    .name("sourcesContent").beginArray().value(source).endArray()
+                    .name("names").beginArray().endArray()
+                    .name("mappings").value(encoded.toString())
+                    .endObject();
+        }
+        return out.toString();
+    }
+
+    private static void encodeVlq(StringBuilder out, int value) {
+        int vlq = value < 0 ? (-value << 1) | 1 : value << 1;
+        do {
+            int digit = vlq & 0x1f;
+            vlq >>>= 5;
+            if (vlq != 0) {
+                digit |= 0x20;
+            }
+            out.append(BASE64_DIGITS.charAt(digit));
+        } while (vlq != 0);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Minimal streaming JSON writer producing indented output.
+ */
+final class JsonWriter implements AutoCloseable {
+
+    private final Writer writer;
+
+    private final Deque<Boolean> firstInScope = new ArrayDeque<>();
+
+    private boolean afterName;
+
+    public JsonWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        writer.write(": ");
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            writer.write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        writer.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        separate();
+        writer.write(Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        writer.write(Boolean.toString(value));
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.write('\n');
+        writer.close();
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        writer.write(bracket);
+        firstInScope.push(Boolean.TRUE);
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        final boolean empty = firstInScope.pop();
+        if (!empty) {
+            newLine();
+        }
+        writer.write(bracket);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (!firstInScope.isEmpty()) {
+            if (firstInScope.pop()) {
+                firstInScope.push(Boolean.FALSE);
+            } else {
+                firstInScope.push(Boolean.FALSE);
+                writer.write(',');
+            }
+            newLine();
+        }
+    }
+
+    private void newLine() throws IOException {
+        writer.write('\n');
+        for (int i = 0; i < firstInScope.size(); i++) {
+            writer.write("  ");
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProjectHelper;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.maven.plugins.annotations.LifecyclePhase.PACKAGE;
+
+/**
+ * Packages the templates of the module into an archive with an index of their dependencies and attaches it to the
+ * project. Modules that declare the archive as a dependency parse its templates only to check their own calls.
+ */
+@Mojo(name = "library", defaultPhase = PACKAGE)
+public class LibraryMojo extends AbstractSoyMojo {
+
+    @Parameter(required = true, defaultValue = "${project.build.directory}/${project.build.finalName}-soy.zip")
+    private File libraryFile;
+
+    @Parameter(required = true, defaultValue = "soy")
+    private String classifier;
+
+    @Component
+    private MavenProjectHelper projectHelper;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        try {
+            process();
+        } catch (MojoExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            getLog().error(e.getMessage());
+            throw new MojoExecutionException("Error packaging templates: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void process() throws Exception {
+
+        super.process();
+
+        libraryFile = getSafePath(libraryFile);
+
+        final List<Path> soyFiles = getSoyFiles();
+        final Map<Path, String> fingerprints = getContentFingerprints(soyFiles);
+        final Map<Path, SoyFileDependencies> dependencies = new LinkedHashMap<>();
+        for (final Path soyFile : soyFiles) {
+            dependencies.put(soyFile, SoyFileDependencies.scan(sources.toPath().resolve(soyFile)));
+        }
+
+        getLog().info("Packaging " + soyFiles.size() + " SOY templates: " + libraryFile);
+        SoyLibrary.write(libraryFile.toPath(), sources.toPath(), soyFiles, fingerprints, dependencies);
+
+        projectHelper.attachArtifact(project, SoyLibrary.TYPE, classifier, libraryFile);
+    }
+}
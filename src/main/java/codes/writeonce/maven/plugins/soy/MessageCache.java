@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages extracted from each template file, keyed by the file path relative to the sources directory and
+ * validated by the content fingerprint of the file, so that only changed templates need to be parsed again.
+ */
+final class MessageCache {
+
+    private static final String HEADER = "soy-maven-plugin-messages 1";
+
+    private static final int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+
+    private final String key;
+
+    private final Map<Path, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * @param key digest of everything besides the file content that affects extraction, a cache written with
+     *            a different key is discarded
+     */
+    public MessageCache(String key) {
+        this.key = key;
+    }
+
+    public static MessageCache read(Path path, String key) throws IOException {
+
+        final MessageCache cache = new MessageCache(key);
+
+        if (!Files.exists(path)) {
+            return cache;
+        }
+
+        try (FileInputStream in = new FileInputStream(path.toFile());
+             BufferedInputStream bufferedInputStream = new BufferedInputStream(in);
+             DataInputStream dataInputStream = new DataInputStream(bufferedInputStream)) {
+
+            if (!HEADER.equals(readString(dataInputStream)) || !key.equals(readString(dataInputStream))) {
+                return cache;
+            }
+
+            final int fileCount = dataInputStream.readInt();
+            for (int i = 0; i < fileCount; i++) {
+                final Path file = Paths.get(readString(dataInputStream));
+                final String fingerprint = readString(dataInputStream);
+                final int messageCount = dataInputStream.readInt();
+                final List<ExtractedMessage> messages = new ArrayList<>(messageCount);
+                for (int j = 0; j < messageCount; j++) {
+                    messages.add(new ExtractedMessage(dataInputStream.readLong(), readString(dataInputStream),
+                            readString(dataInputStream), readString(dataInputStream), readString(dataInputStream)));
+                }
+                cache.entries.put(file, new Entry(fingerprint, messages));
+            }
+        }
+
+        return cache;
+    }
+
+    public void write(Path path) throws IOException {
+        Utils.writeAtomically(path, this::writeTo);
+    }
+
+    private void writeTo(Path path) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(path.toFile());
+             BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(out);
+             DataOutputStream dataOutputStream = new DataOutputStream(bufferedOutputStream)) {
+
+            writeString(dataOutputStream, HEADER);
+            writeString(dataOutputStream, key);
+
+            dataOutputStream.writeInt(entries.size());
+            for (final Map.Entry<Path, Entry> entry : entries.entrySet()) {
+                writeString(dataOutputStream, entry.getKey().toString());
+                writeString(dataOutputStream, entry.getValue().fingerprint);
+                dataOutputStream.writeInt(entry.getValue().messages.size());
+                for (final ExtractedMessage message : entry.getValue().messages) {
+                    dataOutputStream.writeLong(message.getId());
+                    writeString(dataOutputStream, message.getMeaning());
+                    writeString(dataOutputStream, message.getDescription());
+                    writeString(dataOutputStream, message.getDatatype());
+                    writeString(dataOutputStream, message.getSource());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return messages of the file if it was extracted with the given content fingerprint, otherwise {@code null}
+     */
+    public List<ExtractedMessage> get(Path file, String fingerprint) {
+        final Entry entry = entries.get(file);
+        return entry == null || !entry.fingerprint.equals(fingerprint) ? null : entry.messages;
+    }
+
+    public void put(Path file, String fingerprint, List<ExtractedMessage> messages) {
+        entries.put(file, new Entry(fingerprint, Collections.unmodifiableList(new ArrayList<>(messages))));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_STRING_LENGTH) {
+            throw new IOException("Malformed message cache");
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static final class Entry {
+
+        private final String fingerprint;
+
+        private final List<ExtractedMessage> messages;
+
+        private Entry(String fingerprint, List<ExtractedMessage> messages) {
+            this.fingerprint = fingerprint;
+            this.messages = messages;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generated output trees stored in a directory under a key computed from everything the outputs depend on, so that a
+ * build in a fresh workspace can restore them instead of compiling. The directory may be shared by several builds;
+ * entries are published with an atomic move and the least recently used ones are evicted beyond the size limit.
+ * <p>
+ * Files are hard linked between the cache and the output directories where the file system allows it, and copied
+ * otherwise. Outputs are always replaced rather than overwritten in place, which keeps linked cache files intact.
+ */
+final class OutputCache {
+
+    private static final String MANIFEST_FILE = "manifest";
+
+    private static final String TEMP_PREFIX = "tmp-";
+
+    private final Path directory;
+
+    private final long maximumSize;
+
+    /**
+     * @param maximumSize total size in bytes the entries are evicted down to
+     */
+    public OutputCache(Path directory, long maximumSize) {
+        this.directory = directory;
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * @return directory of the entry with the given key, or {@code null} if there is none
+     */
+    public Path find(String key) throws IOException {
+
+        final Path entry = directory.resolve(key);
+        if (!Files.isRegularFile(entry.resolve(MANIFEST_FILE))) {
+            return null;
+        }
+
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        return entry;
+    }
+
+    public static Path getManifestFile(Path entry) {
+        return entry.resolve(MANIFEST_FILE);
+    }
+
+    /**
+     * Stores the given trees and build manifest under the key, unless an entry with the key already exists.
+     *
+     * @param trees output directories keyed by the name of their subdirectory in the entry
+     */
+    public void store(String key, Path manifestFile, Map<String, Path> trees) throws IOException {
+
+        final Path entry = directory.resolve(key);
+        if (Files.exists(entry)) {
+            return;
+        }
+
+        Files.createDirectories(directory);
+        final Path tempEntry = Files.createTempDirectory(directory, TEMP_PREFIX);
+
+        try {
+            for (final Map.Entry<String, Path> tree : trees.entrySet()) {
+                final Path root = tree.getValue();
+                final Path target = tempEntry.resolve(tree.getKey());
+                Files.createDirectories(target);
+                if (Files.isDirectory(root)) {
+                    for (final Path file : FileTreeSnapshot.scan(root).getFiles()) {
+                        link(root.resolve(file), target.resolve(file));
+                    }
+                }
+            }
+            Files.copy(manifestFile, tempEntry.resolve(MANIFEST_FILE));
+
+            try {
+                Files.move(tempEntry, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                // stored by a concurrent build
+            }
+        } finally {
+            if (Files.exists(tempEntry)) {
+                FileUtils.deleteDirectory(tempEntry.toFile());
+            }
+        }
+    }
+
+    /**
+     * Links the files of a tree of the entry into the target directory. Target files that already have the same
+     * content are left untouched.
+     *
+     * @return files of the tree, relative to the target directory
+     */
+    public static List<Path> restore(Path entry, String tree, Path target) throws IOException {
+
+        final Path root = entry.resolve(tree);
+        if (!Files.isDirectory(root)) {
+            throw new IOException("Output cache entry has no " + tree + " tree: " + entry);
+        }
+
+        final List<Path> files = FileTreeSnapshot.scan(root).getFiles();
+        for (final Path file : files) {
+            final Path cachedFile = root.resolve(file);
+            final Path targetFile = target.resolve(file);
+            if (!Files.isRegularFile(targetFile) ||
+                !FileUtils.contentEquals(cachedFile.toFile(), targetFile.toFile())) {
+                Files.deleteIfExists(targetFile);
+                link(cachedFile, targetFile);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Deletes the least recently used entries until the total size of the remaining ones is within the limit.
+     */
+    public void evict() throws IOException {
+
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        final List<Path> entries = new ArrayList<>();
+        final Map<Path, Long> sizes = new HashMap<>();
+        final Map<Path, Long> usedMillis = new HashMap<>();
+        long totalSize = 0;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path entry : stream) {
+                if (Files.isDirectory(entry) && !entry.getFileName().toString().startsWith(TEMP_PREFIX)) {
+                    final long size = FileUtils.sizeOfDirectory(entry.toFile());
+                    entries.add(entry);
+                    sizes.put(entry, size);
+                    usedMillis.put(entry, Files.getLastModifiedTime(entry).toMillis());
+                    totalSize += size;
+                }
+            }
+        }
+
+        entries.sort((first, second) -> Long.compare(usedMillis.get(first), usedMillis.get(second)));
+
+        for (final Path entry : entries) {
+            if (totalSize <= maximumSize) {
+                break;
+            }
+            FileUtils.deleteDirectory(entry.toFile());
+            totalSize -= sizes.get(entry);
+        }
+    }
+
+    private static void link(Path existing, Path link) throws IOException {
+        Files.createDirectories(link.getParent());
+        try {
+            Files.createLink(link, existing);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(existing, link, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Codec for precompressed copies of the generated JS files, written next to each file with the codec extension.
+ * Implementations are looked up by name with {@link java.util.ServiceLoader}, so further codecs can be added as
+ * plugin dependencies.
+ */
+public interface OutputCompressor {
+
+    /**
+     * @return name used to select the codec in the plugin configuration
+     */
+    String getName();
+
+    /**
+     * @return suffix appended to the name of the compressed file, including the dot
+     */
+    String getExtension();
+
+    /**
+     * @return stream compressing into the given one, closing it when closed
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+}
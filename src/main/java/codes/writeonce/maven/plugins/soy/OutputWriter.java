@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes generated files through file channels, leaving files that already have the same content untouched so that
+ * their modification time does not trigger downstream rebuilds. Changed files are written next to the target and
+ * renamed over it, so that they never appear partially written and hard links into the output cache stay intact.
+ */
+final class OutputWriter {
+
+    private static final int COMPARE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * @return {@code true} if the file was written, {@code false} if it already had the given content
+     */
+    public static boolean write(Path file, CharSequence content, Charset charset) throws IOException {
+        return write(file, encode(content, charset));
+    }
+
+    /**
+     * @return {@code true} if the file was written, {@code false} if it already had the given content
+     */
+    public static boolean write(Path file, ByteBuffer content) throws IOException {
+
+        if (hasContent(file, content)) {
+            return false;
+        }
+
+        Utils.writeAtomically(file, tempFile -> {
+            try (FileChannel channel = FileChannel.open(tempFile, WRITE, CREATE_NEW)) {
+                final ByteBuffer buffer = content.duplicate();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        });
+
+        return true;
+    }
+
+    public static ByteBuffer encode(CharSequence content, Charset charset) throws CharacterCodingException {
+        return charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .encode(CharBuffer.wrap(content));
+    }
+
+    private static boolean hasContent(Path file, ByteBuffer content) throws IOException {
+
+        final ByteBuffer expected = content.duplicate();
+
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+
+            if (channel.size() != expected.remaining()) {
+                return false;
+            }
+
+            final ByteBuffer actual = ByteBuffer.allocate(Math.min(COMPARE_BUFFER_SIZE, expected.remaining()));
+
+            while (expected.hasRemaining()) {
+                actual.clear();
+                if (actual.remaining() > expected.remaining()) {
+                    actual.limit(expected.remaining());
+                }
+                while (actual.hasRemaining()) {
+                    if (channel.read(actual) < 0) {
+                        return false;
+                    }
+                }
+                actual.flip();
+                final ByteBuffer expectedChunk = expected.slice();
+                expectedChunk.limit(actual.remaining());
+                if (!actual.equals(expectedChunk)) {
+                    return false;
+                }
+                expected.position(expected.position() + actual.remaining());
+            }
+
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private OutputWriter() {
+        // empty
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import com.google.template.soy.tofu.SoyTofu;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders templates with Tofu against sample data and reports the latency and allocation per render. Every fixture
+ * is a JSON file with the full name of the template and the data to render it with:
+ * <pre>
+ * {"template": "example.page", "data": {"title": "Example"}}
+ * </pre>
+ * With a baseline, the build fails when the median latency or the allocation of a fixture exceeds its baseline value
+ * by more than the threshold. The 99th percentile is reported only, being too noisy to gate on.
+ */
+@Mojo(name = "render-benchmark", requiresDependencyResolution = ResolutionScope.COMPILE)
+public class RenderBenchmarkMojo extends AbstractSoyMojo {
+
+    private static final String FIXTURE_EXTENSION = ".json";
+
+    @Parameter(required = true, defaultValue = "${basedir}/src/test/soy-fixtures")
+    private File fixtures;
+
+    @Parameter(required = true, defaultValue = "1000", property = "soy.renderBenchmark.warmupIterations")
+    private int warmupIterations;
+
+    @Parameter(required = true, defaultValue = "5000", property = "soy.renderBenchmark.iterations")
+    private int iterations;
+
+    @Parameter(defaultValue = "${basedir}/src/test/soy-render-baseline.json")
+    private File baselineFile;
+
+    @Parameter(required = true, defaultValue = "20", property = "soy.renderBenchmark.threshold")
+    private double thresholdPercent;
+
+    @Parameter(defaultValue = "false", property = "soy.renderBenchmark.updateBaseline")
+    private boolean updateBaseline;
+
+    @Parameter(required = true, defaultValue = "${project.build.directory}/soy-render-benchmark.json")
+    private File resultFile;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        try {
+            process();
+        } catch (MojoExecutionException | MojoFailureException e) {
+            throw e;
+        } catch (Exception e) {
+            getLog().error(e.getMessage());
+            throw new MojoExecutionException("Error benchmarking templates: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void process() throws Exception {
+
+        super.process();
+
+        fixtures = getSafePath(fixtures);
+        resultFile = getSafePath(resultFile);
+        if (baselineFile != null) {
+            baselineFile = getSafePath(baselineFile);
+        }
+
+        if (!fixtures.isDirectory()) {
+            getLog().info("Fixtures directory does not exist: " + fixtures);
+            return;
+        }
+
+        final List<Path> fixtureFiles = scan(fixtures).getFiles(FIXTURE_EXTENSION);
+        final List<Path> files = getRequiredFiles(getSoyFiles(), getLibraryEntries(), new LinkedHashMap<>());
+
+        getLog().info("Compiling " + files.size() + " SOY templates to Tofu.");
+        final SoyTofu tofu = getSoyFileSet(files, Collections.emptyList()).compileToTofu();
+
+        final Map<String, Result> results = new LinkedHashMap<>();
+        for (final Path fixtureFile : fixtureFiles) {
+            final String name = Utils.removeSuffix(fixtureFile, FIXTURE_EXTENSION).toString().replace('\\', '/');
+            final Result result = benchmark(tofu, fixtures.toPath().resolve(fixtureFile));
+            results.put(name, result);
+            getLog().info(String.format("%s (%s): p50 %.1f us, p99 %.1f us, %s per render", name, result.template,
+                    result.p50Nanos / 1000.0, result.p99Nanos / 1000.0,
+                    result.allocatedBytes < 0 ? "allocation unknown" : result.allocatedBytes + " bytes"));
+        }
+
+        writeResults(resultFile.toPath(), results);
+
+        if (baselineFile == null) {
+            return;
+        }
+
+        if (updateBaseline) {
+            writeResults(baselineFile.toPath(), results);
+            getLog().info("Updated render benchmark baseline: " + baselineFile);
+        } else if (baselineFile.exists()) {
+            checkRegressions(results, readResults(baselineFile.toPath()));
+        } else {
+            getLog().info("No render benchmark baseline to compare with: " + baselineFile);
+        }
+    }
+
+    private Result benchmark(SoyTofu tofu, Path fixtureFile) throws IOException {
+
+        final Object fixture = JsonReader.parse(new String(Files.readAllBytes(fixtureFile), StandardCharsets.UTF_8));
+        if (!(fixture instanceof Map) || !(((Map<?, ?>) fixture).get("template") instanceof String)) {
+            throw new IOException("Fixture is not an object with a template name: " + fixtureFile);
+        }
+        final String template = (String) ((Map<?, ?>) fixture).get("template");
+        final Object data = ((Map<?, ?>) fixture).get("data");
+        if (data != null && !(data instanceof Map)) {
+            throw new IOException("Fixture data is not an object: " + fixtureFile);
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, ?> templateData = data == null ? Collections.emptyMap() : (Map<String, ?>) data;
+
+        long checksum = 0;
+        for (int i = 0; i < warmupIterations; i++) {
+            checksum += tofu.newRenderer(template).setData(templateData).render().length();
+        }
+
+        final long[] nanos = new long[iterations];
+        final long allocatedBefore = getAllocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            final long started = System.nanoTime();
+            checksum += tofu.newRenderer(template).setData(templateData).render().length();
+            nanos[i] = System.nanoTime() - started;
+        }
+        final long allocatedAfter = getAllocatedBytes();
+
+        getLog().debug("Rendered " + checksum + " characters of " + template);
+
+        Arrays.sort(nanos);
+        final long allocatedBytes = allocatedBefore < 0 || iterations == 0 ? -1 :
+                (allocatedAfter - allocatedBefore) / iterations;
+        return new Result(template, percentile(nanos, 50), percentile(nanos, 99), allocatedBytes);
+    }
+
+    private void checkRegressions(Map<String, Result> results, Map<String, Result> baseline)
+            throws MojoFailureException {
+
+        final double limit = 1 + thresholdPercent / 100;
+        final List<String> regressions = new ArrayList<>();
+
+        for (final Map.Entry<String, Result> entry : results.entrySet()) {
+            final Result result = entry.getValue();
+            final Result base = baseline.get(entry.getKey());
+            if (base == null) {
+                getLog().info("No baseline for " + entry.getKey());
+                continue;
+            }
+            if (result.p50Nanos > base.p50Nanos * limit) {
+                regressions.add(entry.getKey() + ": median " + result.p50Nanos + " ns, baseline " + base.p50Nanos +
+                                " ns");
+            }
+            if (result.allocatedBytes >= 0 && base.allocatedBytes >= 0 &&
+                result.allocatedBytes > base.allocatedBytes * limit) {
+                regressions.add(entry.getKey() + ": " + result.allocatedBytes + " bytes per render, baseline " +
+                                base.allocatedBytes + " bytes");
+            }
+        }
+
+        if (!regressions.isEmpty()) {
+            for (final String regression : regressions) {
+                getLog().error("Render regression " + regression);
+            }
+            throw new MojoFailureException(regressions.size() + " render benchmark regressions beyond " +
+                                           thresholdPercent + "%, see the log for details");
+        }
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted.length == 0 ? 0 : sorted[(sorted.length - 1) * percent / 100];
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, or {@code -1} if the JVM does not tell
+     */
+    private static long getAllocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+            if (allocationBean.isThreadAllocatedMemoryEnabled()) {
+                return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static void writeResults(Path file, Map<String, Result> results) throws IOException {
+
+        Files.createDirectories(file.getParent());
+
+        try (FileOutputStream out = new FileOutputStream(file.toFile());
+             JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            for (final Map.Entry<String, Result> entry : results.entrySet()) {
+                final Result result = entry.getValue();
+                writer.name(entry.getKey()).beginObject()
+                        .name("template").value(result.template)
+                        .name("p50Nanos").value(result.p50Nanos)
+                        .name("p99Nanos").value(result.p99Nanos)
+                        .name("allocatedBytes").value(result.allocatedBytes)
+                        .endObject();
+            }
+            writer.endObject();
+        }
+    }
+
+    private static Map<String, Result> readResults(Path file) throws IOException {
+
+        final Object json = JsonReader.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        if (!(json instanceof Map)) {
+            throw new IOException("Malformed render benchmark baseline: " + file);
+        }
+
+        final Map<String, Result> results = new LinkedHashMap<>();
+        for (final Map.Entry<?, ?> entry : ((Map<?, ?>) json).entrySet()) {
+            if (!(entry.getValue() instanceof Map)) {
+                throw new IOException("Malformed render benchmark baseline: " + file);
+            }
+            final Map<?, ?> result = (Map<?, ?>) entry.getValue();
+            results.put((String) entry.getKey(), new Result(String.valueOf(result.get("template")),
+                    getLong(result, "p50Nanos", file), getLong(result, "p99Nanos", file),
+                    getLong(result, "allocatedBytes", file)));
+        }
+        return results;
+    }
+
+    private static long getLong(Map<?, ?> object, String name, Path file) throws IOException {
+        final Object value = object.get(name);
+        if (!(value instanceof Number)) {
+            throw new IOException("Malformed render benchmark baseline, no " + name + ": " + file);
+        }
+        return ((Number) value).longValue();
+    }
+
+    private static final class Result {
+
+        private final String template;
+
+        private final long p50Nanos;
+
+        private final long p99Nanos;
+
+        private final long allocatedBytes;
+
+        private Result(String template, long p50Nanos, long p99Nanos, long allocatedBytes) {
+            this.template = template;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+}
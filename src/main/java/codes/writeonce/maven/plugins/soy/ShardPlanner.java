@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the templates to compile into shards of bounded size. Templates connected by calls are kept in the same
+ * shard where possible, so that a shard needs few other files parsed as dependencies; connected groups larger than
+ * the bound are cut into consecutive chunks, and small groups are packed together.
+ */
+final class ShardPlanner {
+
+    private ShardPlanner() {
+        // empty
+    }
+
+    /**
+     * @return shards in the order of their first file, each holding its connected groups one after another, in the
+     * order of the given files
+     */
+    public static List<List<Path>> split(DependencyGraph graph, List<Path> files, int maximumSize) {
+
+        final List<List<Path>> shards = new ArrayList<>();
+        List<Path> shard = new ArrayList<>();
+
+        for (final List<Path> component : getComponents(graph, files)) {
+            if (shard.size() + component.size() > maximumSize && !shard.isEmpty()) {
+                shards.add(shard);
+                shard = new ArrayList<>();
+            }
+            for (final Path file : component) {
+                if (shard.size() == maximumSize) {
+                    shards.add(shard);
+                    shard = new ArrayList<>();
+                }
+                shard.add(file);
+            }
+        }
+
+        if (!shard.isEmpty()) {
+            shards.add(shard);
+        }
+
+        return shards;
+    }
+
+    /**
+     * @return groups of the given files connected by calls in either direction, ignoring files not given
+     */
+    private static List<List<Path>> getComponents(DependencyGraph graph, List<Path> files) {
+
+        final Map<Path, Path> parents = new HashMap<>();
+        for (final Path file : files) {
+            parents.put(file, file);
+        }
+
+        for (final Path file : files) {
+            for (final Path dependency : graph.getDirectDependencies(file)) {
+                if (parents.containsKey(dependency)) {
+                    union(parents, file, dependency);
+                }
+            }
+        }
+
+        final Map<Path, List<Path>> components = new LinkedHashMap<>();
+        for (final Path file : files) {
+            components.computeIfAbsent(find(parents, file), k -> new ArrayList<>()).add(file);
+        }
+        return new ArrayList<>(components.values());
+    }
+
+    private static Path find(Map<Path, Path> parents, Path file) {
+        Path root = file;
+        while (!parents.get(root).equals(root)) {
+            root = parents.get(root);
+        }
+        Path current = file;
+        while (!current.equals(root)) {
+            final Path next = parents.get(current);
+            parents.put(current, root);
+            current = next;
+        }
+        return root;
+    }
+
+    private static void union(Map<Path, Path> parents, Path first, Path second) {
+        final Path firstRoot = find(parents, first);
+        final Path secondRoot = find(parents, second);
+        if (!firstRoot.equals(secondRoot)) {
+            parents.put(secondRoot, firstRoot);
+        }
+    }
+}
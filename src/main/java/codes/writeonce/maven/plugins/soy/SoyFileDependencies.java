@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Namespaces and delegate templates a SOY file provides and refers to, as seen by a lightweight lexical scan.
+ */
+final class SoyFileDependencies {
+
+    private static final Pattern NAMESPACE_PATTERN = Pattern.compile("\\{namespace\\s+([\\w.]+)");
+    private static final Pattern ALIAS_PATTERN = Pattern.compile("\\{alias\\s+([\\w.]+)(?:\\s+as\\s+(\\w+))?\\s*}");
+    private static final Pattern CALL_PATTERN = Pattern.compile("\\{call\\s+([\\w.]+)");
+    private static final Pattern DELCALL_PATTERN = Pattern.compile("\\{delcall\\s+([\\w.]+)");
+    private static final Pattern DELTEMPLATE_PATTERN = Pattern.compile("\\{deltemplate\\s+([\\w.]+)");
+
+    private final String namespace;
+    private final Set<String> calledNamespaces;
+    private final Set<String> delcalls;
+    private final Set<String> deltemplates;
+
+    public SoyFileDependencies(String namespace, Set<String> calledNamespaces, Set<String> delcalls,
+            Set<String> deltemplates) {
+        this.namespace = namespace;
+        this.calledNamespaces = Collections.unmodifiableSet(new TreeSet<>(calledNamespaces));
+        this.delcalls = Collections.unmodifiableSet(new TreeSet<>(delcalls));
+        this.deltemplates = Collections.unmodifiableSet(new TreeSet<>(deltemplates));
+    }
+
+    public static SoyFileDependencies scan(Path soyFile) throws IOException {
+        return parse(new String(Files.readAllBytes(soyFile), StandardCharsets.UTF_8));
+    }
+
+    public static SoyFileDependencies parse(CharSequence source) {
+
+        final Matcher namespaceMatcher = NAMESPACE_PATTERN.matcher(source);
+        final String namespace = namespaceMatcher.find() ? namespaceMatcher.group(1) : "";
+
+        final Map<String, String> aliases = new HashMap<>();
+        final Matcher aliasMatcher = ALIAS_PATTERN.matcher(source);
+        while (aliasMatcher.find()) {
+            final String aliasedNamespace = aliasMatcher.group(1);
+            final String alias = aliasMatcher.group(2);
+            aliases.put(alias == null ? aliasedNamespace.substring(aliasedNamespace.lastIndexOf('.') + 1) : alias,
+                    aliasedNamespace);
+        }
+
+        final Set<String> calledNamespaces = new TreeSet<>();
+        final Matcher callMatcher = CALL_PATTERN.matcher(source);
+        while (callMatcher.find()) {
+            final String calleeName = callMatcher.group(1);
+            final int lastDot = calleeName.lastIndexOf('.');
+            if (lastDot > 0) {
+                final String calleeNamespace = expandAlias(aliases, calleeName.substring(0, lastDot));
+                if (!calleeNamespace.equals(namespace)) {
+                    calledNamespaces.add(calleeNamespace);
+                }
+            }
+        }
+
+        return new SoyFileDependencies(namespace, calledNamespaces, findAll(DELCALL_PATTERN, source),
+                findAll(DELTEMPLATE_PATTERN, source));
+    }
+
+    private static String expandAlias(Map<String, String> aliases, String name) {
+        final int firstDot = name.indexOf('.');
+        final String head = firstDot < 0 ? name : name.substring(0, firstDot);
+        final String aliasedNamespace = aliases.get(head);
+        if (aliasedNamespace == null) {
+            return name;
+        }
+        return firstDot < 0 ? aliasedNamespace : aliasedNamespace + name.substring(firstDot);
+    }
+
+    private static Set<String> findAll(Pattern pattern, CharSequence source) {
+        final Set<String> result = new TreeSet<>();
+        final Matcher matcher = pattern.matcher(source);
+        while (matcher.find()) {
+            result.add(matcher.group(1));
+        }
+        return result;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public Set<String> getCalledNamespaces() {
+        return calledNamespaces;
+    }
+
+    public Set<String> getDelcalls() {
+        return delcalls;
+    }
+
+    public Set<String> getDeltemplates() {
+        return deltemplates;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results computed from a template set, shared by all plugin executions in the JVM and keyed by a digest of the
+ * template files and compile time globals.
+ * <p>
+ * {@link com.google.template.soy.SoyFileSet} parses its sources again on every compile call and is not safe to share
+ * between threads, so it is the products of a file set (compiled JS per locale, parse info, extracted messages)
+ * that are kept rather than the file set itself. File sets are evicted in least recently used order once the total
+ * weight of their results exceeds the bound, which is the largest one any execution in the JVM asked for, so that
+ * the order modules are configured in does not matter.
+ */
+final class SoyFileSetCache {
+
+    private static final SoyFileSetCache INSTANCE = new SoyFileSetCache();
+
+    private static final SoyFileSetCache DISABLED_INSTANCE = new SoyFileSetCache();
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long maximumWeight;
+
+    private long weight;
+
+    public static SoyFileSetCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return cache that keeps nothing, for executions that turn caching off whatever bound others asked for
+     */
+    public static SoyFileSetCache getDisabledInstance() {
+        return DISABLED_INSTANCE;
+    }
+
+    /**
+     * Raises the bound to the given weight, unless it is already higher.
+     */
+    public synchronized void requireMaximumWeight(long maximumWeight) {
+        this.maximumWeight = Math.max(this.maximumWeight, maximumWeight);
+    }
+
+    public synchronized long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T get(String fileSetKey, String resultKey) {
+        final Entry entry = entries.get(fileSetKey);
+        return entry == null ? null : (T) entry.results.get(resultKey);
+    }
+
+    public synchronized void put(String fileSetKey, String resultKey, Object result, long resultWeight) {
+
+        if (maximumWeight <= 0 || resultWeight > maximumWeight) {
+            return;
+        }
+
+        final Entry entry = entries.computeIfAbsent(fileSetKey, k -> new Entry());
+        if (entry.results.put(resultKey, result) == null) {
+            entry.weight += resultWeight;
+            weight += resultWeight;
+        }
+
+        evict();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    private void evict() {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (weight > maximumWeight && iterator.hasNext()) {
+            weight -= iterator.next().weight;
+            iterator.remove();
+        }
+    }
+
+    private static final class Entry {
+
+        private final Map<String, Object> results = new HashMap<>();
+
+        private long weight;
+    }
+
+    private SoyFileSetCache() {
+        // empty
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Template library archive: the templates of a module together with an index of the content fingerprint and the
+ * dependencies of every template, so that a consuming module can tell which library templates it needs and whether
+ * they changed without scanning them.
+ */
+final class SoyLibrary {
+
+    public static final String TYPE = "zip";
+
+    private static final String HEADER = "soy-maven-plugin-library 1";
+
+    private static final String INDEX_ENTRY = "META-INF/soy-library.index";
+
+    private static final String TEMPLATES_PREFIX = "soy/";
+
+    private static final String EXTRACTED_MARKER = ".extracted";
+
+    private static final Charset INDEX_CHARSET = Charset.forName("UTF-8");
+
+    private static final long ENTRY_TIME = 0;
+
+    private SoyLibrary() {
+        // empty
+    }
+
+    /**
+     * @param soyFiles templates relative to the source root, stored in the given order
+     */
+    public static void write(Path libraryFile, Path sourceRoot, Iterable<Path> soyFiles,
+            Map<Path, String> fingerprints, Map<Path, SoyFileDependencies> dependencies) throws IOException {
+
+        Utils.writeAtomically(libraryFile,
+                tempFile -> writeArchive(tempFile, sourceRoot, soyFiles, fingerprints, dependencies));
+    }
+
+    private static void writeArchive(Path libraryFile, Path sourceRoot, Iterable<Path> soyFiles,
+            Map<Path, String> fingerprints, Map<Path, SoyFileDependencies> dependencies) throws IOException {
+
+        try (FileOutputStream out = new FileOutputStream(libraryFile.toFile());
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+
+            final StringBuilder index = new StringBuilder();
+            index.append(HEADER).append('\n');
+
+            for (final Path soyFile : soyFiles) {
+                final String name = Utils.toSlashSeparated(soyFile);
+                final ZipEntry entry = new ZipEntry(TEMPLATES_PREFIX + name);
+                entry.setTime(ENTRY_TIME);
+                zip.putNextEntry(entry);
+                Files.copy(sourceRoot.resolve(soyFile), zip);
+                zip.closeEntry();
+
+                final SoyFileDependencies fileDependencies = dependencies.get(soyFile);
+                index.append("file ").append(fingerprints.get(soyFile)).append('\t').append(name).append('\n');
+                index.append("namespace ").append(fileDependencies.getNamespace()).append('\n');
+                for (final String calledNamespace : fileDependencies.getCalledNamespaces()) {
+                    index.append("calls ").append(calledNamespace).append('\n');
+                }
+                for (final String delcall : fileDependencies.getDelcalls()) {
+                    index.append("delcall ").append(delcall).append('\n');
+                }
+                for (final String deltemplate : fileDependencies.getDeltemplates()) {
+                    index.append("deltemplate ").append(deltemplate).append('\n');
+                }
+            }
+
+            final ZipEntry indexEntry = new ZipEntry(INDEX_ENTRY);
+            indexEntry.setTime(ENTRY_TIME);
+            zip.putNextEntry(indexEntry);
+            final OutputStreamWriter writer = new OutputStreamWriter(zip, INDEX_CHARSET);
+            writer.write(index.toString());
+            writer.flush();
+            zip.closeEntry();
+        }
+    }
+
+    /**
+     * Reads the index of a library and extracts its templates into the given directory, unless the same archive was
+     * extracted there before.
+     *
+     * @return entries of the extracted templates keyed by their absolute paths, in the order of the archive
+     */
+    public static Map<Path, BuildManifest.SourceEntry> extract(Path libraryFile, Path directory) throws IOException {
+
+        final BasicFileAttributes attributes = Files.readAttributes(libraryFile, BasicFileAttributes.class);
+        final String stamp = attributes.size() + "\t" + attributes.lastModifiedTime().toMillis() + "\t" +
+                             libraryFile.toAbsolutePath();
+        final Path marker = directory.resolve(EXTRACTED_MARKER);
+
+        try (ZipFile zip = new ZipFile(libraryFile.toFile())) {
+
+            final Map<Path, BuildManifest.SourceEntry> entries = readIndex(zip, directory, libraryFile);
+
+            if (!Files.exists(marker) || !stamp.equals(new String(Files.readAllBytes(marker), INDEX_CHARSET))) {
+                FileUtils.deleteDirectory(directory.toFile());
+                Files.createDirectories(directory);
+                for (final Path file : entries.keySet()) {
+                    final String name = TEMPLATES_PREFIX + Utils.toSlashSeparated(directory.relativize(file));
+                    final ZipEntry entry = zip.getEntry(name);
+                    if (entry == null) {
+                        throw new IOException("Template library " + libraryFile + " has no entry for " + file);
+                    }
+                    Files.createDirectories(file.getParent());
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        Files.copy(in, file);
+                    }
+                }
+                Files.write(marker, stamp.getBytes(INDEX_CHARSET));
+            }
+
+            return entries;
+        }
+    }
+
+    private static Map<Path, BuildManifest.SourceEntry> readIndex(ZipFile zip, Path directory, Path libraryFile)
+            throws IOException {
+
+        final ZipEntry indexEntry = zip.getEntry(INDEX_ENTRY);
+        if (indexEntry == null) {
+            throw new IOException("Not a template library: " + libraryFile);
+        }
+
+        final Map<Path, BuildManifest.SourceEntry> entries = new LinkedHashMap<>();
+
+        try (InputStream in = zip.getInputStream(indexEntry);
+             InputStreamReader inputStreamReader = new InputStreamReader(in, INDEX_CHARSET);
+             BufferedReader reader = new BufferedReader(inputStreamReader)) {
+
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException("Unsupported template library format: " + libraryFile);
+            }
+
+            Path file = null;
+            String fingerprint = null;
+            String namespace = "";
+            Set<String> calledNamespaces = null;
+            Set<String> delcalls = null;
+            Set<String> deltemplates = null;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int separator = line.indexOf(' ');
+                if (separator < 0) {
+                    throw new IOException("Malformed template library index line: " + line);
+                }
+                final String key = line.substring(0, separator);
+                final String value = line.substring(separator + 1);
+                if ("file".equals(key)) {
+                    if (file != null) {
+                        entries.put(file, new BuildManifest.SourceEntry(fingerprint,
+                                new SoyFileDependencies(namespace, calledNamespaces, delcalls, deltemplates)));
+                    }
+                    final int tab = value.indexOf('\t');
+                    final String name = value.substring(tab + 1);
+                    file = directory.resolve(name).normalize();
+                    if (tab < 0 || name.startsWith("/") || !file.startsWith(directory)) {
+                        throw new IOException("Malformed template library index line: " + line);
+                    }
+                    fingerprint = value.substring(0, tab);
+                    namespace = "";
+                    calledNamespaces = new TreeSet<>();
+                    delcalls = new TreeSet<>();
+                    deltemplates = new TreeSet<>();
+                } else if (file == null) {
+                    throw new IOException("Malformed template library index line: " + line);
+                } else if ("namespace".equals(key)) {
+                    namespace = value;
+                } else if ("calls".equals(key)) {
+                    calledNamespaces.add(value);
+                } else if ("delcall".equals(key)) {
+                    delcalls.add(value);
+                } else if ("deltemplate".equals(key)) {
+                    deltemplates.add(value);
+                } else {
+                    throw new IOException("Unknown template library index entry: " + key);
+                }
+            }
+
+            if (file != null) {
+                entries.put(file, new BuildManifest.SourceEntry(fingerprint,
+                        new SoyFileDependencies(namespace, calledNamespaces, delcalls, deltemplates)));
+            }
+        }
+
+        return entries;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content hashes of files keyed by path and validated by size, modification time and file key (inode), so that
+ * unchanged files are not read again.
+ * <p>
+ * A file modified within the timestamp granularity of the moment its hash was recorded can look unchanged, so
+ * entries that recent are not trusted and get hashed again on the next build.
+ */
+final class StatCache {
+
+    private static final String HEADER = "soy-maven-plugin-stat-cache 1";
+
+    private static final Charset CACHE_CHARSET = Charset.forName("UTF-8");
+
+    private static final long RACY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static final String NO_FILE_KEY = "-";
+
+    private final Map<String, Entry> loaded = new ConcurrentHashMap<>();
+
+    private final Map<String, Entry> used = new ConcurrentHashMap<>();
+
+    private volatile boolean modified;
+
+    private final AtomicLong hashedFiles = new AtomicLong();
+
+    private final AtomicLong hashedBytes = new AtomicLong();
+
+    public static StatCache read(Path path) throws IOException {
+
+        final StatCache cache = new StatCache();
+
+        if (!Files.exists(path)) {
+            cache.modified = true;
+            return cache;
+        }
+
+        try (FileInputStream in = new FileInputStream(path.toFile());
+             InputStreamReader inputStreamReader = new InputStreamReader(in, CACHE_CHARSET);
+             BufferedReader reader = new BufferedReader(inputStreamReader)) {
+
+            if (!HEADER.equals(reader.readLine())) {
+                cache.modified = true;
+                return cache;
+            }
+
+            final long trustedBefore = Long.parseLong(reader.readLine()) - RACY_INTERVAL_NANOS;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\t", 5);
+                if (fields.length != 5) {
+                    throw new IOException("Malformed stat cache line: " + line);
+                }
+                final Entry entry = new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2],
+                        fields[3]);
+                if (entry.modifiedNanos < trustedBefore) {
+                    cache.loaded.put(fields[4], entry);
+                } else {
+                    cache.modified = true;
+                }
+            }
+        }
+
+        return cache;
+    }
+
+    public void write(Path path) throws IOException {
+
+        if (!modified && used.size() == loaded.size()) {
+            return;
+        }
+
+        Utils.writeAtomically(path, this::writeTo);
+    }
+
+    private void writeTo(Path path) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(path.toFile());
+             OutputStreamWriter outputStreamWriter = new OutputStreamWriter(out, CACHE_CHARSET);
+             BufferedWriter writer = new BufferedWriter(outputStreamWriter)) {
+
+            writer.write(HEADER);
+            writer.newLine();
+            writer.write(Long.toString(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis())));
+            writer.newLine();
+
+            for (final Map.Entry<String, Entry> entry : used.entrySet()) {
+                final Entry value = entry.getValue();
+                writer.write(value.size + "\t" + value.modifiedNanos + "\t" + value.fileKey + "\t" + value.hash + "\t" +
+                             entry.getKey());
+                writer.newLine();
+            }
+        }
+    }
+
+    public String getFingerprint(Path file) throws IOException {
+        return getFingerprint(file, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    public String getFingerprint(Path file, BasicFileAttributes attributes) throws IOException {
+
+        final String key = file.toAbsolutePath().toString();
+        final long size = attributes.size();
+        final long modifiedNanos = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        final String fileKey = attributes.fileKey() == null ? NO_FILE_KEY : attributes.fileKey().toString();
+
+        Entry entry = loaded.get(key);
+        if (entry == null || entry.size != size || entry.modifiedNanos != modifiedNanos ||
+            !entry.fileKey.equals(fileKey)) {
+            final String hash = com.google.common.io.Files.asByteSource(file.toFile())
+                    .hash(Hashing.murmur3_128()).toString();
+            entry = new Entry(size, modifiedNanos, fileKey, hash);
+            modified = true;
+            hashedFiles.incrementAndGet();
+            hashedBytes.addAndGet(size);
+        }
+
+        used.put(key, entry);
+        return entry.hash;
+    }
+
+    public long getHashedFiles() {
+        return hashedFiles.get();
+    }
+
+    public long getHashedBytes() {
+        return hashedBytes.get();
+    }
+
+    private static final class Entry {
+
+        private final long size;
+
+        private final long modifiedNanos;
+
+        private final String fileKey;
+
+        private final String hash;
+
+        private Entry(long size, long modifiedNanos, String fileKey, String hash) {
+            this.size = size;
+            this.modifiedNanos = modifiedNanos;
+            this.fileKey = Objects.requireNonNull(fileKey);
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import com.google.common.io.ByteSink;
+import com.google.template.soy.SoyFileSetAccessor;
+import com.google.template.soy.jbcsrc.shared.Names;
+import com.google.template.soy.jbcsrc.shared.TemplateMetadata;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.model.Resource;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+import static org.apache.maven.plugins.annotations.LifecyclePhase.GENERATE_RESOURCES;
+
+/**
+ * Packages the templates for server-side rendering. By default the templates, together with the library templates
+ * they call into and the compile-time globals, are precompiled to bytecode: the template classes become classpath
+ * resources, and a generated loader class turns them into a {@code SoySauce} when the server starts, without parsing
+ * or compiling any template there.
+ * <p>
+ * Without precompilation the template sources and the globals become classpath resources listed in an index
+ * instead, and the loader compiles them into a {@code SoyTofu} on startup; the goal then only compiles the templates
+ * to report template errors at build time. That suits templates using features the bytecode compiler of this Soy
+ * release does not support.
+ */
+@Mojo(name = "tofu", defaultPhase = GENERATE_RESOURCES, requiresDependencyResolution = ResolutionScope.COMPILE)
+public class TofuMojo extends AbstractSoyMojo {
+
+    private static final String TEMPLATES_DIRECTORY = "templates";
+    private static final String LIBRARIES_DIRECTORY = "libraries";
+    private static final String INDEX_FILE = "templates.index";
+    private static final String GLOBALS_FILE = "globals.soy";
+    private static final String STAMP_FILE_PREFIX = "tofu-";
+    private static final String STAMP_FILE_SUFFIX = ".stamp";
+
+    private static final String CLASS_DIRECTORY = Names.CLASS_PREFIX.substring(0, Names.CLASS_PREFIX.length() - 1)
+            .replace('.', '/');
+    private static final String CLASS_EXTENSION = ".class";
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    @Parameter(required = true, defaultValue = "${project.build.directory}/generated-resources/soy")
+    private File resourcesDirectory;
+
+    @Parameter(required = true, defaultValue = "soy")
+    private String resourcePath;
+
+    @Parameter(required = true, defaultValue = "${project.build.directory}/generated-sources/soy-tofu")
+    private File loaderOutputDirectory;
+
+    @Parameter(required = true)
+    private String javaPackage;
+
+    @Parameter(required = true, defaultValue = "SoyTemplates")
+    private String loaderClassName;
+
+    @Parameter(required = true, defaultValue = "${project.build.directory}/soy-maven-plugin-markers")
+    private File markersDirectory;
+
+    @Parameter(defaultValue = "true", property = "soy.precompile")
+    private boolean precompile;
+
+    @Parameter(required = true, readonly = true, defaultValue = "${mojoExecution}")
+    private MojoExecution execution;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        try {
+            process();
+        } catch (MojoExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            getLog().error(e.getMessage());
+            throw new MojoExecutionException("Error packaging templates for Tofu: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    protected void process() throws Exception {
+
+        super.process();
+
+        resourcesDirectory = getSafePath(resourcesDirectory);
+        loaderOutputDirectory = getSafePath(loaderOutputDirectory);
+        markersDirectory = getSafePath(markersDirectory);
+
+        final List<Path> soyFiles = getSoyFiles();
+        final Map<Path, BuildManifest.SourceEntry> libraryEntries = getLibraryEntries();
+
+        final Map<Path, SoyFileDependencies> dependencies = new LinkedHashMap<>();
+        final List<Path> files = getRequiredFiles(soyFiles, libraryEntries, dependencies);
+
+        final Map<Path, String> fingerprints = new LinkedHashMap<>(getContentFingerprints(soyFiles));
+        for (final Map.Entry<Path, BuildManifest.SourceEntry> entry : libraryEntries.entrySet()) {
+            fingerprints.put(entry.getKey(), entry.getValue().getFingerprint());
+        }
+
+        final Path stampFile = markersDirectory.toPath()
+                .resolve(STAMP_FILE_PREFIX + execution.getExecutionId() + STAMP_FILE_SUFFIX);
+        final String stamp = getStamp(files, fingerprints);
+
+        if (Files.exists(stampFile) && stamp.equals(new String(Files.readAllBytes(stampFile), StandardCharsets.UTF_8))
+            && resourcesDirectory.exists() && loaderOutputDirectory.exists()) {
+            getLog().info("No changes detected. SOY templates for Tofu are up to date.");
+        } else {
+            final Path classRoot = resourcesDirectory.toPath().resolve(CLASS_DIRECTORY);
+            final Path resourceRoot = resourcesDirectory.toPath().resolve(resourcePath);
+            if (precompile) {
+                getLog().info("Precompiling " + files.size() + " SOY templates to bytecode.");
+                final Set<String> deltemplates = writeClasses(files, classRoot);
+                deleteStaleResources(resourceRoot, Collections.emptySet());
+                writeSauceLoader(deltemplates);
+            } else {
+                getLog().info("Validating " + files.size() + " SOY templates for Tofu.");
+                getSoyFileSet(files, Collections.emptyList()).compileToTofu();
+                deleteStaleResources(classRoot, Collections.emptySet());
+                writeResources(new DependencyGraph(dependencies).getLoadOrder(files), resourceRoot);
+                writeLoader();
+            }
+
+            Files.createDirectories(stampFile.getParent());
+            Files.write(stampFile, stamp.getBytes(StandardCharsets.UTF_8));
+        }
+
+        final Resource resource = new Resource();
+        resource.setDirectory(resourcesDirectory.getPath());
+        project.addResource(resource);
+        project.addCompileSourceRoot(loaderOutputDirectory.getPath());
+    }
+
+    /**
+     * Compiles the templates to bytecode and writes the template classes under the class root, removing classes left
+     * over from earlier builds.
+     *
+     * @return names of the templates implementing deltemplates, which the loader has to list for Soy
+     */
+    private Set<String> writeClasses(List<Path> files, Path classRoot) throws IOException, ClassNotFoundException {
+
+        final ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        SoyFileSetAccessor.compileToJar(getSoyFileSet(files, Collections.emptyList()), new ByteSink() {
+            @Override
+            public OutputStream openStream() {
+                return jar;
+            }
+        });
+
+        final Set<Path> written = new HashSet<>();
+        final List<String> classNames = new ArrayList<>();
+
+        try (JarInputStream in = new JarInputStream(new ByteArrayInputStream(jar.toByteArray()))) {
+            JarEntry entry;
+            while ((entry = in.getNextJarEntry()) != null) {
+                final String name = entry.getName();
+                if (name.startsWith(CLASS_DIRECTORY + "/") && name.endsWith(CLASS_EXTENSION)) {
+                    final Path classFile = resourcesDirectory.toPath().resolve(name);
+                    OutputWriter.write(classFile, ByteBuffer.wrap(IOUtils.toByteArray(in)));
+                    written.add(classFile);
+                    classNames.add(name.substring(0, name.length() - CLASS_EXTENSION.length()).replace('/', '.'));
+                }
+            }
+        }
+
+        deleteStaleResources(classRoot, written);
+
+        final Set<String> deltemplates = new TreeSet<>();
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{resourcesDirectory.toURI().toURL()},
+                TofuMojo.class.getClassLoader())) {
+            for (final String className : classNames) {
+                final TemplateMetadata metadata =
+                        classLoader.loadClass(className).getAnnotation(TemplateMetadata.class);
+                if (metadata != null && !metadata.deltemplateMetadata().name().isEmpty()) {
+                    deltemplates.add(Names.soyTemplateNameFromJavaClassName(className));
+                }
+            }
+        }
+        return deltemplates;
+    }
+
+    /**
+     * Copies the templates in load order under the resource path, writes their index and the globals, and removes
+     * resources left over from earlier builds. Only the resource path is swept, as the resources directory may hold
+     * resources of other goals.
+     */
+    private void writeResources(List<Path> files, Path resourceRoot) throws IOException {
+
+        final Set<Path> written = new HashSet<>();
+        final StringBuilder index = new StringBuilder();
+
+        for (final Path file : files) {
+            final String name;
+            if (file.isAbsolute()) {
+                name = LIBRARIES_DIRECTORY + "/" + Utils.toSlashSeparated(librariesDirectory.toPath().relativize(file));
+            } else {
+                name = TEMPLATES_DIRECTORY + "/" + Utils.toSlashSeparated(file);
+            }
+            final Path resource = resourceRoot.resolve(name);
+            OutputWriter.write(resource, ByteBuffer.wrap(Files.readAllBytes(sources.toPath().resolve(file))));
+            written.add(resource);
+            index.append(name).append('\n');
+        }
+
+        final Path indexFile = resourceRoot.resolve(INDEX_FILE);
+        OutputWriter.write(indexFile, index, StandardCharsets.UTF_8);
+        written.add(indexFile);
+
+        final Path globalsFile = resourceRoot.resolve(GLOBALS_FILE);
+        OutputWriter.write(globalsFile, getGlobals(), StandardCharsets.UTF_8);
+        written.add(globalsFile);
+
+        deleteStaleResources(resourceRoot, written);
+    }
+
+    private void deleteStaleResources(Path root, Set<Path> written) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        for (final Path file : scan(root.toFile()).getFiles()) {
+            final Path resource = root.resolve(file);
+            if (!written.contains(resource)) {
+                Files.deleteIfExists(resource);
+            }
+        }
+    }
+
+    /**
+     * Compile-time globals in the format of a Soy globals file, with every value a string literal.
+     */
+    private String getGlobals() {
+        final StringBuilder globals = new StringBuilder();
+        for (final Map.Entry<String, String> entry : getCompileTimeGlobals().entrySet()) {
+            globals.append(entry.getKey()).append(" = '");
+            final String value = entry.getValue();
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                switch (c) {
+                    case '\'':
+                        globals.append("\\'");
+                        break;
+                    case '\\':
+                        globals.append("\\\\");
+                        break;
+                    case '\n':
+                        globals.append("\\n");
+                        break;
+                    case '\r':
+                        globals.append("\\r");
+                        break;
+                    default:
+                        globals.append(c);
+                }
+            }
+            globals.append("'\n");
+        }
+        return globals.toString();
+    }
+
+    private void writeLoader() throws IOException {
+
+        final String prefix = resourcePath + "/";
+        final Path loaderFile = loaderOutputDirectory.toPath()
+                .resolve(javaPackage.replace('.', File.separatorChar))
+                .resolve(loaderClassName + ".java");
+
+        final String source = "package " + javaPackage + ";\n" +
+                "\n" +
+                "import com.google.template.soy.SoyFileSet;\n" +
+                "import com.google.template.soy.tofu.SoyTofu;\n" +
+                "\n" +
+                "import java.io.BufferedReader;\n" +
+                "import java.io.IOException;\n" +
+                "import java.io.InputStream;\n" +
+                "import java.io.InputStreamReader;\n" +
+                "import java.net.URL;\n" +
+                "import java.nio.charset.StandardCharsets;\n" +
+                "\n" +
+                "/**\n" +
+                " * Compiles the SOY templates packaged by soy-maven-plugin into a {@link SoyTofu}.\n" +
+                " */\n" +
+                "public final class " + loaderClassName + " {\n" +
+                "\n" +
+                "    private static final String RESOURCE_PREFIX = \"" + prefix + "\";\n" +
+                "\n" +
+                "    private " + loaderClassName + "() {\n" +
+                "        // empty\n" +
+                "    }\n" +
+                "\n" +
+                "    public static SoyTofu compile() throws IOException {\n" +
+                "\n" +
+                "        final ClassLoader classLoader = " + loaderClassName + ".class.getClassLoader();\n" +
+                "        final SoyFileSet.Builder builder = SoyFileSet.builder();\n" +
+                "        builder.setCompileTimeGlobals(getResource(classLoader, \"" + GLOBALS_FILE + "\"));\n" +
+                "\n" +
+                "        try (InputStream in = getResource(classLoader, \"" + INDEX_FILE + "\").openStream();\n" +
+                "             InputStreamReader inputStreamReader = new InputStreamReader(in, " +
+                "StandardCharsets.UTF_8);\n" +
+                "             BufferedReader reader = new BufferedReader(inputStreamReader)) {\n" +
+                "            String line;\n" +
+                "            while ((line = reader.readLine()) != null) {\n" +
+                "                builder.add(getResource(classLoader, line));\n" +
+                "            }\n" +
+                "        }\n" +
+                "\n" +
+                "        return builder.build().compileToTofu();\n" +
+                "    }\n" +
+                "\n" +
+                "    private static URL getResource(ClassLoader classLoader, String name) throws IOException {\n" +
+                "        final URL resource = classLoader.getResource(RESOURCE_PREFIX + name);\n" +
+                "        if (resource == null) {\n" +
+                "            throw new IOException(\"SOY template resource not found: \" + RESOURCE_PREFIX + name);\n" +
+                "        }\n" +
+                "        return resource;\n" +
+                "    }\n" +
+                "}\n";
+
+        OutputWriter.write(loaderFile, source, StandardCharsets.UTF_8);
+    }
+
+    private void writeSauceLoader(Set<String> deltemplates) throws IOException {
+
+        final Path loaderFile = loaderOutputDirectory.toPath()
+                .resolve(javaPackage.replace('.', File.separatorChar))
+                .resolve(loaderClassName + ".java");
+
+        final StringBuilder deltemplateNames = new StringBuilder();
+        for (final String deltemplate : deltemplates) {
+            deltemplateNames.append(deltemplateNames.length() == 0 ? "" : ",").append("\n            \"")
+                    .append(deltemplate).append('"');
+        }
+
+        final String source = "package " + javaPackage + ";\n" +
+                "\n" +
+                "import com.google.common.collect.ImmutableMap;\n" +
+                "import com.google.common.collect.ImmutableSet;\n" +
+                "import com.google.inject.Guice;\n" +
+                "import com.google.inject.Injector;\n" +
+                "import com.google.inject.Key;\n" +
+                "import com.google.inject.TypeLiteral;\n" +
+                "import com.google.template.soy.SoyModule;\n" +
+                "import com.google.template.soy.jbcsrc.api.SoySauce;\n" +
+                "import com.google.template.soy.jbcsrc.api.SoySauceImpl;\n" +
+                "import com.google.template.soy.jbcsrc.shared.CompiledTemplates;\n" +
+                "import com.google.template.soy.shared.restricted.SoyFunction;\n" +
+                "import com.google.template.soy.shared.restricted.SoyPrintDirective;\n" +
+                "\n" +
+                "/**\n" +
+                " * Loads the SOY templates precompiled by soy-maven-plugin into a {@link SoySauce}.\n" +
+                " */\n" +
+                "public final class " + loaderClassName + " {\n" +
+                "\n" +
+                "    private static final ImmutableSet<String> DELTEMPLATES = ImmutableSet.of(" + deltemplateNames +
+                ");\n" +
+                "\n" +
+                "    private " + loaderClassName + "() {\n" +
+                "        // empty\n" +
+                "    }\n" +
+                "\n" +
+                "    public static SoySauce load() {\n" +
+                "\n" +
+                "        final Injector injector = Guice.createInjector(new SoyModule());\n" +
+                "        final ImmutableMap<String, ? extends SoyFunction> functions = injector.getInstance(\n" +
+                "                Key.get(new TypeLiteral<ImmutableMap<String, ? extends SoyFunction>>() {}));\n" +
+                "        final ImmutableMap<String, ? extends SoyPrintDirective> printDirectives = " +
+                "injector.getInstance(\n" +
+                "                Key.get(new TypeLiteral<ImmutableMap<String, ? extends SoyPrintDirective>>() {}));\n" +
+                "\n" +
+                "        final CompiledTemplates templates = new CompiledTemplates(DELTEMPLATES, " + loaderClassName +
+                ".class.getClassLoader());\n" +
+                "        return injector.getInstance(SoySauceImpl.Factory.class).create(templates, functions, " +
+                "printDirectives);\n" +
+                "    }\n" +
+                "}\n";
+
+        OutputWriter.write(loaderFile, source, StandardCharsets.UTF_8);
+    }
+
+    private String getStamp(List<Path> files, Map<Path, String> fingerprints) throws NoSuchAlgorithmException {
+        final MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        for (final String value : new String[]{resourcePath, javaPackage, loaderClassName, String.valueOf(precompile),
+                resourcesDirectory.getPath(), getFileSetKey(files, Collections.emptyList(), fingerprints)}) {
+            md.update(value.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+        }
+        return Hex.encodeHexString(md.digest());
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import com.google.common.hash.Hashing;
+import com.google.template.soy.msgs.SoyMsgBundle;
+import com.google.template.soy.msgs.restricted.SoyMsg;
+import com.google.template.soy.msgs.restricted.SoyMsgBundleImpl;
+import com.google.template.soy.msgs.restricted.SoyMsgPart;
+import com.google.template.soy.msgs.restricted.SoyMsgPlaceholderPart;
+import com.google.template.soy.msgs.restricted.SoyMsgRawTextPart;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Translated message bundles in a compact binary form, one file per translation file path and fingerprint, so that
+ * unchanged XLIFF files are not parsed again. The path is part of the key because a timestamp fingerprint does not
+ * tell apart files of different locales with the same size and modification time. Cached files are memory mapped on
+ * load.
+ * <p>
+ * Only messages made of raw text and placeholders are stored; a bundle with plural or select messages is not cached
+ * and its XLIFF file is parsed on every build.
+ */
+final class TranslationCache {
+
+    private static final int MAGIC = 0x736f794d;
+
+    private static final int VERSION = 1;
+
+    private static final String EXTENSION = ".msgs";
+
+    private static final byte RAW_TEXT_PART = 0;
+
+    private static final byte PLACEHOLDER_PART = 1;
+
+    private final Path directory;
+
+    public TranslationCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public static String getKey(Path xliffFile, String fingerprint) {
+        return Hashing.murmur3_128().newHasher()
+                .putString(xliffFile.toString(), StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(fingerprint, StandardCharsets.UTF_8)
+                .hash().toString();
+    }
+
+    /**
+     * @return cached bundle with the given key, or {@code null} if there is none
+     */
+    public SoyMsgBundle load(String key) throws IOException {
+
+        final Path file = getFile(key);
+
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            final String localeString = readString(buffer);
+            final int messageCount = buffer.getInt();
+            final List<SoyMsg> messages = new ArrayList<>(messageCount);
+
+            for (int i = 0; i < messageCount; i++) {
+                final long id = buffer.getLong();
+                final int partCount = buffer.getInt();
+                final List<SoyMsgPart> parts = new ArrayList<>(partCount);
+                for (int j = 0; j < partCount; j++) {
+                    final byte type = buffer.get();
+                    final String value = readString(buffer);
+                    if (type == RAW_TEXT_PART) {
+                        parts.add(SoyMsgRawTextPart.of(value));
+                    } else if (type == PLACEHOLDER_PART) {
+                        parts.add(new SoyMsgPlaceholderPart(value));
+                    } else {
+                        throw new IOException("Malformed translation cache file: " + file);
+                    }
+                }
+                messages.add(new SoyMsg(id, localeString, false, parts));
+            }
+
+            return new SoyMsgBundleImpl(localeString, messages);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Malformed translation cache file: " + file, e);
+        }
+    }
+
+    /**
+     * @return {@code false} if the bundle has messages that cannot be cached
+     */
+    public boolean store(String key, SoyMsgBundle bundle) throws IOException {
+
+        for (final SoyMsg message : bundle) {
+            if (message.isPlrselMsg()) {
+                return false;
+            }
+            for (final SoyMsgPart part : message.getParts()) {
+                if (!(part instanceof SoyMsgRawTextPart) && !(part instanceof SoyMsgPlaceholderPart)) {
+                    return false;
+                }
+            }
+        }
+
+        Utils.writeAtomically(getFile(key), file -> write(file, bundle));
+
+        return true;
+    }
+
+    private static void write(Path file, SoyMsgBundle bundle) throws IOException {
+
+        try (FileOutputStream out = new FileOutputStream(file.toFile());
+             BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(out);
+             DataOutputStream dataOutputStream = new DataOutputStream(bufferedOutputStream)) {
+
+            dataOutputStream.writeInt(MAGIC);
+            dataOutputStream.writeInt(VERSION);
+            writeString(dataOutputStream, bundle.getLocaleString());
+            dataOutputStream.writeInt(bundle.getNumMsgs());
+
+            for (final SoyMsg message : bundle) {
+                dataOutputStream.writeLong(message.getId());
+                dataOutputStream.writeInt(message.getParts().size());
+                for (final SoyMsgPart part : message.getParts()) {
+                    if (part instanceof SoyMsgRawTextPart) {
+                        dataOutputStream.writeByte(RAW_TEXT_PART);
+                        writeString(dataOutputStream, ((SoyMsgRawTextPart) part).getRawText());
+                    } else {
+                        dataOutputStream.writeByte(PLACEHOLDER_PART);
+                        writeString(dataOutputStream, ((SoyMsgPlaceholderPart) part).getPlaceholderName());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes cached bundles of translation files that no longer exist, and temporary files left by an interrupted
+     * build.
+     */
+    public void retain(Collection<String> keys) throws IOException {
+
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (final Path file : stream) {
+                final String name = file.getFileName().toString();
+                if (!keys.contains(name.substring(0, name.length() - EXTENSION.length()))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, ".*" + Utils.TEMP_SUFFIX)) {
+            for (final Path file : stream) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private Path getFile(String key) {
+        return directory.resolve(key + EXTENSION);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
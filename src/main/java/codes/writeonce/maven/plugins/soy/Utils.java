@@ -20,35 +20,18 @@
 package codes.writeonce.maven.plugins.soy;
 
 import java.io.IOException;
-import java.nio.file.FileVisitOption;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.concurrent.ThreadLocalRandom;
 
-final class Utils {
-
-    public static List<Path> getFilesFromSubtree(Path directory) throws IOException {
-        return getFilesFromSubtree(directory, path -> Files.isRegularFile(path));
-    }
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
-    public static List<Path> getFilesFromSubtree(Path directory, String nameSuffix) throws IOException {
-        return getFilesFromSubtree(directory,
-                path -> Files.isRegularFile(path) && path.getFileName().toString().endsWith(nameSuffix));
-    }
-
-    public static List<Path> getFilesFromSubtree(Path directory, Predicate<? super Path> predicate) throws IOException {
-
-        if (!Files.isDirectory(directory)) {
-            throw new IOException("Not a directory: " + directory);
-        }
+final class Utils {
 
-        return Files.walk(directory, FileVisitOption.FOLLOW_LINKS)
-                    .filter(predicate)
-                    .map(directory::relativize)
-                    .collect(Collectors.toList());
-    }
+    public static final String TEMP_SUFFIX = ".tmp";
 
     public static Path changeSuffix(Path path, String fromNameSuffix, String toNameSuffix) {
         final String fileName = path.getFileName().toString();
@@ -59,6 +42,10 @@ final class Utils {
         return path.resolveSibling(fileName.subSequence(0, fileName.length() - fromNameSuffix.length()) + toNameSuffix);
     }
 
+    public static Path addSuffix(Path path, String nameSuffix) {
+        return path.resolveSibling(path.getFileName() + nameSuffix);
+    }
+
     public static Path removeSuffix(Path path, String nameSuffix) {
         final String fileName = path.getFileName().toString();
         if (!fileName.endsWith(nameSuffix)) {
@@ -68,6 +55,69 @@ final class Utils {
         return path.resolveSibling(fileName.substring(0, fileName.length() - nameSuffix.length()));
     }
 
+    /**
+     * @return the relative path with its elements separated by slashes whatever the platform, as in resource and zip
+     * entry names
+     */
+    public static String toSlashSeparated(Path path) {
+        final StringBuilder name = new StringBuilder();
+        for (final Path element : path) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(element);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Deletes the directory and its subdirectories, bottom up, as long as they contain no files.
+     *
+     * @return {@code true} if the directory was deleted
+     */
+    public static boolean deleteEmptyDirectories(Path directory) throws IOException {
+        boolean empty = true;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path entry : stream) {
+                if (!Files.isDirectory(entry) || Files.isSymbolicLink(entry) || !deleteEmptyDirectories(entry)) {
+                    empty = false;
+                }
+            }
+        }
+        return empty && Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Writes the file into a temporary file next to it and then moves that over the file, so that neither concurrent
+     * readers nor an interrupted build ever see it partially written.
+     */
+    public static void writeAtomically(Path file, FileContentWriter writer) throws IOException {
+
+        Files.createDirectories(file.getParent());
+        final Path tempFile = file.resolveSibling("." + file.getFileName() + "." +
+                                                  Long.toHexString(ThreadLocalRandom.current().nextLong()) +
+                                                  TEMP_SUFFIX);
+        try {
+            writer.write(tempFile);
+            moveAtomically(tempFile, file);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    public static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, REPLACE_EXISTING);
+        }
+    }
+
+    interface FileContentWriter {
+
+        void write(Path file) throws IOException;
+    }
+
     private Utils() {
         // empty
     }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Compiles the templates, then keeps recompiling whatever changes in the source and translation directories until
+ * the build is interrupted. Compilation errors are reported and do not stop watching.
+ */
+@Mojo(name = "watch", requiresDependencyResolution = ResolutionScope.COMPILE)
+public class WatchMojo extends CompileMojo {
+
+    @Parameter(required = true, defaultValue = "50", property = "soy.watch.debounce")
+    private long debounceMillis;
+
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        try {
+            watch();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            getLog().info("Stopped watching SOY templates.");
+        } catch (MojoExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            getLog().error(e.getMessage());
+            throw new MojoExecutionException("Error watching templates: " + e.getMessage(), e);
+        }
+    }
+
+    private void watch() throws Exception {
+
+        compile();
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+
+            register(watchService, sources);
+            register(watchService, getTranslations());
+
+            getLog().info("Watching " + sources + " and " + getTranslations() + " for changes.");
+
+            while (true) {
+                WatchKey key = watchService.take();
+
+                // let a burst of events, e.g. from a save-all or a checkout, settle before rebuilding
+                while (key != null) {
+                    processEvents(watchService, key);
+                    key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                }
+
+                compile();
+            }
+        }
+    }
+
+    private void compile() {
+        final long started = System.nanoTime();
+        try {
+            process();
+            getLog().info("Templates compiled in " +
+                          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms.");
+        } catch (Exception e) {
+            getLog().error("Error compiling templates: " + e.getMessage());
+        }
+    }
+
+    private void processEvents(WatchService watchService, WatchKey key) throws IOException {
+
+        final Path directory = watchedDirectories.get(key);
+
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || directory == null) {
+                continue;
+            }
+            final Path path = directory.resolve((Path) event.context());
+            getLog().debug("Detected " + event.kind().name() + " of " + path);
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                register(watchService, path.toFile());
+            }
+        }
+
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    private void register(WatchService watchService, File root) throws IOException {
+
+        if (!root.isDirectory()) {
+            return;
+        }
+
+        Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                watchedDirectories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
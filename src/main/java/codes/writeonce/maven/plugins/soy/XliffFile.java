@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import com.google.common.escape.Escaper;
+import com.google.common.xml.XmlEscapers;
+import com.google.template.soy.msgs.internal.IcuSyntaxUtils;
+import com.google.template.soy.msgs.restricted.SoyMsg;
+import com.google.template.soy.msgs.restricted.SoyMsgPart;
+import com.google.template.soy.msgs.restricted.SoyMsgPlaceholderPart;
+import com.google.template.soy.msgs.restricted.SoyMsgRawTextPart;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reading and writing of XLIFF 1.2 files in the layout produced by the Soy XLIFF message plugin, so that extracted
+ * messages can be merged with the translations already present in a file.
+ */
+final class XliffFile {
+
+    private static final Escaper CONTENT_ESCAPER = XmlEscapers.xmlContentEscaper();
+
+    private static final Escaper ATTRIBUTE_ESCAPER = XmlEscapers.xmlAttributeEscaper();
+
+    private static final Map<String, String> DATATYPES = new HashMap<>();
+
+    static {
+        DATATYPES.put("text/plain", "plaintext");
+        DATATYPES.put("text/html", "html");
+        DATATYPES.put("application/xhtml+xml", "xhtml");
+        DATATYPES.put("text/javascript", "javascript");
+        DATATYPES.put("application/javascript", "javascript");
+        DATATYPES.put("text/css", "css");
+        DATATYPES.put("text/xml", "xml");
+    }
+
+    private XliffFile() {
+        // empty
+    }
+
+    /**
+     * Plural and select messages are written in embedded ICU syntax, with their placeholders as {@code x} elements.
+     */
+    public static ExtractedMessage toExtractedMessage(SoyMsg message) throws IOException {
+
+        final List<SoyMsgPart> parts;
+        if (message.isPlrselMsg()) {
+            parts = IcuSyntaxUtils.convertMsgPartsToEmbeddedIcuSyntax(message.getParts(), true);
+        } else {
+            parts = message.getParts();
+        }
+
+        final StringBuilder source = new StringBuilder();
+        for (final SoyMsgPart part : parts) {
+            if (part instanceof SoyMsgRawTextPart) {
+                source.append(CONTENT_ESCAPER.escape(((SoyMsgRawTextPart) part).getRawText()));
+            } else if (part instanceof SoyMsgPlaceholderPart) {
+                source.append("<x id=\"")
+                        .append(ATTRIBUTE_ESCAPER.escape(((SoyMsgPlaceholderPart) part).getPlaceholderName()))
+                        .append("\"/>");
+            } else {
+                throw new IOException("Unsupported part " + part.getClass().getSimpleName() + " in message " +
+                                      message.getId() + " (" + message.getDesc() + ")");
+            }
+        }
+
+        return new ExtractedMessage(message.getId(), message.getMeaning(), message.getDesc(),
+                getDatatype(message.getContentType()), source.toString());
+    }
+
+    /**
+     * @return content of the {@code target} element of every trans-unit that has one, keyed by the trans-unit id
+     */
+    public static Map<String, String> readTargets(Path file) throws IOException {
+
+        final Document document;
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            document = factory.newDocumentBuilder().parse(file.toFile());
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Failed to parse XLIFF file " + file + ": " + e.getMessage(), e);
+        }
+
+        final Map<String, String> targets = new HashMap<>();
+        final NodeList units = document.getElementsByTagNameNS("*", "trans-unit");
+        for (int i = 0; i < units.getLength(); i++) {
+            final Element unit = (Element) units.item(i);
+            for (Node child = unit.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE && "target".equals(child.getLocalName())) {
+                    final StringBuilder target = new StringBuilder();
+                    appendChildren(target, child);
+                    targets.put(unit.getAttribute("id"), target.toString());
+                    break;
+                }
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * @param targets translations to keep, keyed by message id; messages without one are written with no target
+     */
+    public static String toString(String sourceLocale, String targetLocale, Collection<ExtractedMessage> messages,
+            Map<String, String> targets) {
+
+        final StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        builder.append("<xliff version=\"1.2\" xmlns=\"urn:oasis:names:tc:xliff:document:1.2\">\n");
+        builder.append("  <file original=\"SoyMsgBundle\" datatype=\"x-soy-msg\" xml:space=\"preserve\"");
+        if (sourceLocale != null) {
+            builder.append(" source-language=\"").append(ATTRIBUTE_ESCAPER.escape(sourceLocale)).append('"');
+        }
+        if (targetLocale != null && targetLocale.length() > 0) {
+            builder.append(" target-language=\"").append(ATTRIBUTE_ESCAPER.escape(targetLocale)).append('"');
+        }
+        builder.append(">\n");
+        builder.append("    <body>\n");
+
+        for (final ExtractedMessage message : messages) {
+            final String id = Long.toString(message.getId());
+            builder.append("      <trans-unit id=\"").append(id).append('"');
+            if (message.getDatatype() != null) {
+                builder.append(" datatype=\"").append(ATTRIBUTE_ESCAPER.escape(message.getDatatype())).append('"');
+            }
+            builder.append(">\n");
+            builder.append("        <source>").append(message.getSource()).append("</source>\n");
+            final String target = targets.get(id);
+            if (target != null) {
+                builder.append("        <target>").append(target).append("</target>\n");
+            }
+            appendNote(builder, "description", message.getDescription());
+            appendNote(builder, "meaning", message.getMeaning());
+            builder.append("      </trans-unit>\n");
+        }
+
+        builder.append("    </body>\n");
+        builder.append("  </file>\n");
+        builder.append("</xliff>\n");
+        return builder.toString();
+    }
+
+    private static void appendNote(StringBuilder builder, String from, String text) {
+        if (text != null && text.length() > 0) {
+            builder.append("        <note priority=\"1\" from=\"").append(from).append("\">")
+                    .append(CONTENT_ESCAPER.escape(text)).append("</note>\n");
+        }
+    }
+
+    private static String getDatatype(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        final String datatype = DATATYPES.get(contentType);
+        return datatype == null ? "x-" + contentType.replace('/', '-') : datatype;
+    }
+
+    private static void appendChildren(StringBuilder builder, Node node) {
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    builder.append(CONTENT_ESCAPER.escape(child.getNodeValue()));
+                    break;
+                case Node.ELEMENT_NODE:
+                    appendElement(builder, child);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static void appendElement(StringBuilder builder, Node element) {
+
+        final String name = element.getLocalName() == null ? element.getNodeName() : element.getLocalName();
+        builder.append('<').append(name);
+
+        final NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            final Node attribute = attributes.item(i);
+            if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                builder.append(' ').append(attribute.getNodeName()).append("=\"")
+                        .append(ATTRIBUTE_ESCAPER.escape(attribute.getNodeValue())).append('"');
+            }
+        }
+
+        if (element.hasChildNodes()) {
+            builder.append('>');
+            appendChildren(builder, element);
+            builder.append("</").append(name).append('>');
+        } else {
+            builder.append("/>");
+        }
+    }
+}
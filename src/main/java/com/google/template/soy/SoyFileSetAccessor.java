@@ -19,7 +19,11 @@
 
 package com.google.template.soy;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSink;
+
+import java.io.IOException;
 
 public final class SoyFileSetAccessor {
 
@@ -28,6 +32,10 @@ public final class SoyFileSetAccessor {
         return soyFileSet.generateParseInfo(javaPackage, javaClassNameSource);
     }
 
+    public static void compileToJar(SoyFileSet soyFileSet, ByteSink jarTarget) throws IOException {
+        soyFileSet.compileToJar(jarTarget, Optional.<ByteSink>absent());
+    }
+
     private SoyFileSetAccessor() {
         // empty
     }
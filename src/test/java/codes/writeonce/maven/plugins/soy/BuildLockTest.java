@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BuildLockTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void holdsFileLockUntilClosed() throws IOException {
+
+        final Path file = folder.getRoot().toPath().resolve("a/b/status.lock");
+
+        try (BuildLock lock = BuildLock.tryAcquire(file)) {
+            assertNotNull(lock);
+            assertTrue(Files.exists(file));
+            try (FileChannel channel = FileChannel.open(file, WRITE)) {
+                channel.tryLock();
+                fail();
+            } catch (OverlappingFileLockException ignored) {
+                // expected
+            }
+        }
+
+        assertTrue(Files.exists(file));
+        try (FileChannel channel = FileChannel.open(file, WRITE); FileLock fileLock = channel.tryLock()) {
+            assertNotNull(fileLock);
+        }
+    }
+
+    @Test
+    public void tryAcquireFailsWhileAnotherBuildHoldsLock() throws Exception {
+
+        final Path file = folder.getRoot().toPath().resolve("status.lock");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            try (BuildLock ignored = BuildLock.acquire(file)) {
+                assertNull(executor.submit(() -> BuildLock.tryAcquire(file)).get());
+            }
+
+            final BuildLock lock = executor.submit(() -> BuildLock.tryAcquire(file)).get();
+            assertNotNull(lock);
+            executor.submit(() -> {
+                lock.close();
+                return null;
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void acquireWaitsForRelease() throws Exception {
+
+        final Path file = folder.getRoot().toPath().resolve("status.lock");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<?> waiting;
+            try (BuildLock ignored = BuildLock.acquire(file)) {
+                waiting = executor.submit(() -> {
+                    try (BuildLock inner = BuildLock.acquire(file)) {
+                        return null;
+                    }
+                });
+                try {
+                    waiting.get(200, TimeUnit.MILLISECONDS);
+                    fail();
+                } catch (TimeoutException e) {
+                    // expected
+                }
+                assertFalse(waiting.isDone());
+            }
+            waiting.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BuildManifestTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+
+        final BuildManifest manifest = new BuildManifest("options");
+        manifest.setSourceDigest("sources");
+        manifest.getTranslations().put(Paths.get("ru.xlf"), "ru-fingerprint");
+
+        final BuildManifest.SourceEntry entry = new BuildManifest.SourceEntry("a-fingerprint",
+                new SoyFileDependencies("a", Collections.singleton("b"), Collections.singleton("d.call"),
+                        Collections.singleton("d.template")));
+        entry.setJavaOutputs(Collections.singletonList(Paths.get("p", "ASoyInfo.java")));
+        manifest.getSources().put(Paths.get("dir", "a.soy"), entry);
+        manifest.getSources().put(Paths.get("b.soy"), new BuildManifest.SourceEntry("b-fingerprint",
+                new SoyFileDependencies("b", Collections.emptySet(), Collections.emptySet(),
+                        Collections.emptySet())));
+
+        final Path file = folder.getRoot().toPath().resolve("manifest");
+        manifest.write(file);
+        final BuildManifest read = BuildManifest.read(file);
+
+        assertEquals("options", read.getOptionsDigest());
+        assertEquals("sources", read.getSourceDigest());
+        assertEquals(Collections.singletonMap(Paths.get("ru.xlf"), "ru-fingerprint"), read.getTranslations());
+        assertEquals(Arrays.asList(Paths.get("dir", "a.soy"), Paths.get("b.soy")),
+                Arrays.asList(read.getSources().keySet().toArray()));
+
+        final BuildManifest.SourceEntry readEntry = read.getSources().get(Paths.get("dir", "a.soy"));
+        assertEquals("a-fingerprint", readEntry.getFingerprint());
+        assertEquals("a", readEntry.getDependencies().getNamespace());
+        assertEquals(Collections.singleton("b"), readEntry.getDependencies().getCalledNamespaces());
+        assertEquals(Collections.singleton("d.call"), readEntry.getDependencies().getDelcalls());
+        assertEquals(Collections.singleton("d.template"), readEntry.getDependencies().getDeltemplates());
+        assertEquals(Collections.singletonList(Paths.get("p", "ASoyInfo.java")), readEntry.getJavaOutputs());
+
+        assertTrue(read.getSources().get(Paths.get("b.soy")).getDependencies().getCalledNamespaces().isEmpty());
+    }
+
+    @Test
+    public void rejectsUnknownFormat() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("manifest");
+        Files.write(file, Collections.singletonList("soy-maven-plugin-manifest 0"));
+        try {
+            BuildManifest.read(file);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CompactionIndexTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+
+        final Path file = folder.getRoot().toPath().resolve("markers/index.compaction");
+        final CompactionIndex index = new CompactionIndex("key");
+        index.put(Paths.get("target/js/a.soy.js"), "hash-a");
+        index.put(Paths.get("target/js/b.soy.js"), "hash-b");
+        index.remove(Paths.get("target/js/b.soy.js"));
+        index.write(file);
+
+        final CompactionIndex read = CompactionIndex.read(file, "key");
+        assertEquals("hash-a", read.get(Paths.get("target/js/a.soy.js")));
+        assertNull(read.get(Paths.get("target/js/b.soy.js")));
+    }
+
+    @Test
+    public void discardsIndexOfOtherSettings() throws IOException {
+
+        final Path file = folder.getRoot().toPath().resolve("index.compaction");
+        final CompactionIndex index = new CompactionIndex("key");
+        index.put(Paths.get("a.soy.js"), "hash");
+        index.write(file);
+
+        assertNull(CompactionIndex.read(file, "other").get(Paths.get("a.soy.js")));
+        final Path missing = folder.getRoot().toPath().resolve("missing");
+        assertNull(CompactionIndex.read(missing, "key").get(Paths.get("a.soy.js")));
+    }
+}
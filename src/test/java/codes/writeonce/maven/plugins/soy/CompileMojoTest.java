@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import com.google.template.soy.SoyFileSet;
+import com.google.template.soy.msgs.restricted.SoyMsg;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompileMojoTest {
+
+    private static final Log SILENT_LOG = (Log) Proxy.newProxyInstance(Log.class.getClassLoader(),
+            new Class<?>[]{Log.class}, (proxy, method, args) -> method.getReturnType() == boolean.class ? false : null);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path basedir;
+
+    private Path jsOutput;
+
+    private Path javaOutput;
+
+    @Before
+    public void setUp() {
+        basedir = folder.getRoot().toPath();
+        jsOutput = basedir.resolve("target/generated-js/soy");
+        javaOutput = basedir.resolve("target/generated-sources/soy/test/templates");
+    }
+
+    @Test
+    public void recompilesOnlyChangedTemplatesAndTheirCallers() throws Exception {
+
+        writeTemplate("a.soy", "a", "{call b.t/}");
+        writeTemplate("b.soy", "b", "B");
+        writeTemplate("c.soy", "c", "C");
+        execute(newMojo());
+
+        final Path untouched = jsOutput.resolve("c.js");
+        Files.setLastModifiedTime(untouched, FileTime.fromMillis(0));
+
+        writeTemplate("b.soy", "b", "B2");
+        execute(newMojo());
+
+        assertTrue(read(jsOutput.resolve("b.js")).contains("B2"));
+        assertEquals(0, Files.getLastModifiedTime(untouched).toMillis());
+        final String metrics = read(basedir.resolve("target/soy-maven-plugin-metrics-test.json"));
+        assertTrue(metrics, metrics.contains("\"templatesChanged\": 1"));
+        assertTrue(metrics, metrics.contains("\"templatesCompiled\": 2"));
+    }
+
+    @Test
+    public void rebuildsWhenOptionsChange() throws Exception {
+
+        writeTemplate("a.soy", "a", "A");
+        execute(newMojo());
+
+        final CompileMojo mojo = newMojo();
+        set(mojo, "jsCompressions", Collections.singletonList("gzip"));
+        execute(mojo);
+
+        assertTrue(Files.isRegularFile(jsOutput.resolve("a.js.gz")));
+    }
+
+    @Test
+    public void keepsSameNamedTemplatesInOneFileSetWhenSharding() throws Exception {
+
+        writeTemplate("a/Foo.soy", "a", "A");
+        writeTemplate("b/Foo.soy", "b", "B");
+        writeTemplate("c/Bar.soy", "c", "C");
+
+        final CompileMojo mojo = newMojo();
+        set(mojo, "shardSize", 1);
+        execute(mojo);
+
+        assertTrue(Files.isRegularFile(javaOutput.resolve("Foo1SoyInfo.java")));
+        assertTrue(Files.isRegularFile(javaOutput.resolve("Foo2SoyInfo.java")));
+        assertTrue(Files.isRegularFile(javaOutput.resolve("BarSoyInfo.java")));
+        assertFalse(Files.exists(javaOutput.resolve("FooSoyInfo.java")));
+        assertTrue(Files.isRegularFile(jsOutput.resolve("a/Foo.js")));
+        assertTrue(Files.isRegularFile(jsOutput.resolve("b/Foo.js")));
+    }
+
+    @Test
+    public void generatesParseInfoOfEveryTemplateWithItsCallees() throws Exception {
+
+        writeTemplate("a.soy", "a", "{call b.t/}");
+        writeTemplate("b.soy", "b", "B");
+        writeTemplate("c.soy", "c", "C");
+        execute(newMojo());
+
+        assertEquals(new HashSet<>(Arrays.asList("ASoyInfo.java", "BSoyInfo.java", "CSoyInfo.java")),
+                list(javaOutput));
+    }
+
+    @Test
+    public void renumbersSameNamedTemplatesWhenOneIsRecompiled() throws Exception {
+
+        writeTemplate("a/Foo.soy", "a", "A");
+        writeTemplate("b/Foo.soy", "b", "B");
+        execute(newMojo());
+
+        writeTemplate("a/Foo.soy", "a", "A2");
+        execute(newMojo());
+
+        assertEquals(new HashSet<>(Arrays.asList("Foo1SoyInfo.java", "Foo2SoyInfo.java")), list(javaOutput));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(Arrays.asList(
+                getNamespace(javaOutput.resolve("Foo1SoyInfo.java")),
+                getNamespace(javaOutput.resolve("Foo2SoyInfo.java")))));
+    }
+
+    @Test
+    public void renamesTheRemainingTemplateWhenAnotherOfItsNameIsRemoved() throws Exception {
+
+        writeTemplate("a/Foo.soy", "a", "A");
+        writeTemplate("b/Foo.soy", "b", "B");
+        execute(newMojo());
+
+        Files.delete(basedir.resolve("src/main/soy/b/Foo.soy"));
+        execute(newMojo());
+
+        assertEquals(Collections.singleton("FooSoyInfo.java"), list(javaOutput));
+        assertEquals("a", getNamespace(javaOutput.resolve("FooSoyInfo.java")));
+    }
+
+    @Test
+    public void skipsCompressionWithoutCompressors() throws Exception {
+
+        writeTemplate("a.soy", "a", "A");
+        execute(newMojo());
+
+        final String metrics = read(basedir.resolve("target/soy-maven-plugin-metrics-test.json"));
+        assertTrue(metrics.contains("\"name\": \"compile-js\""));
+        assertFalse(metrics.contains("\"name\": \"compress\""));
+    }
+
+    @Test
+    public void leavesSourceMapReferencesOutOfBundles() throws Exception {
+
+        writeTemplate("a.soy", "a", "A");
+        writeTemplate("b.soy", "b", "B");
+
+        final CompileMojo mojo = newMojo();
+        set(mojo, "jsCompact", true);
+        set(mojo, "jsSourceMaps", true);
+        set(mojo, "jsBundle", true);
+        execute(mojo);
+
+        assertTrue(read(jsOutput.resolve("a.js")).contains("//# sourceMappingURL=a.js.map"));
+        final Path bundleDirectory = basedir.resolve("target/generated-js/soy-bundles");
+        for (final String bundle : list(bundleDirectory)) {
+            assertFalse(bundle, read(bundleDirectory.resolve(bundle)).contains("sourceMappingURL"));
+        }
+    }
+
+    @Test
+    public void sharesCachedResultsBetweenModulesWithTheSameTemplates() throws Exception {
+
+        SoyFileSetCache.getInstance().clear();
+        final Path root = basedir;
+        for (final String module : new String[]{"first", "second"}) {
+            basedir = root.resolve(module);
+            jsOutput = basedir.resolve("target/generated-js/soy");
+            writeTemplate(module + "/a.soy", "a", "A");
+            final CompileMojo mojo = newMojo();
+            set(mojo, "cacheSize", 64);
+            execute(mojo);
+        }
+        SoyFileSetCache.getInstance().clear();
+
+        assertTrue(Files.isRegularFile(jsOutput.resolve("second/a.js")));
+        assertTrue(read(basedir.resolve("target/soy-maven-plugin-metrics-test.json")).contains("\"cacheHits\": 2"));
+    }
+
+    @Test
+    public void rebuildsOnlyTheLocaleWhoseTranslationsChanged() throws Exception {
+
+        write(basedir.resolve("src/main/soy/a.soy"),
+                "{namespace a}\n\n/** */\n{template .t}\n{msg desc=\"Greeting\"}Hello{/msg}\n{/template}\n");
+        writeTemplate("b.soy", "b", "B");
+        writeTranslation("de", null);
+        writeTranslation("ru", null);
+        execute(newMojo());
+
+        for (final String output : new String[]{"de/a.js", "de/b.js"}) {
+            Files.setLastModifiedTime(jsOutput.resolve(output), FileTime.fromMillis(0));
+        }
+
+        writeTranslation("ru", "Privet");
+        execute(newMojo());
+
+        assertTrue(read(jsOutput.resolve("ru/a.js")).contains("Privet"));
+        assertFalse(read(jsOutput.resolve("de/a.js")).contains("Privet"));
+        assertEquals(0, Files.getLastModifiedTime(jsOutput.resolve("de/a.js")).toMillis());
+        assertEquals(0, Files.getLastModifiedTime(jsOutput.resolve("de/b.js")).toMillis());
+        final String metrics = read(basedir.resolve("target/soy-maven-plugin-metrics-test.json"));
+        assertTrue(metrics, metrics.contains("\"localesRebuilt\": 1"));
+        assertTrue(metrics, metrics.contains("\"localesCompiled\": 1"));
+        assertTrue(metrics, metrics.contains("\"templatesCompiled\": 0"));
+    }
+
+    private CompileMojo newMojo() throws Exception {
+
+        final MavenProject project = new MavenProject();
+        project.setFile(basedir.resolve("pom.xml").toFile());
+
+        final CompileMojo mojo = new CompileMojo();
+        mojo.setLog(SILENT_LOG);
+        set(mojo, "project", project);
+        set(mojo, "sources", basedir.resolve("src/main/soy").toFile());
+        set(mojo, "cacheSize", 0);
+        set(mojo, "libraryClassifier", "soy");
+        set(mojo, "librariesDirectory", basedir.resolve("target/soy-libraries").toFile());
+        set(mojo, "translations", basedir.resolve("src/main/i18n").toFile());
+        set(mojo, "jsOutputDirectory", jsOutput.toFile());
+        set(mojo, "jsBundleDirectory", basedir.resolve("target/generated-js/soy-bundles").toFile());
+        set(mojo, "javaOutputDirectory", basedir.resolve("target/generated-sources/soy").toFile());
+        set(mojo, "javaPackage", "test.templates");
+        set(mojo, "javaClassNameSource", JavaClassNameSource.SOY_FILE_NAME);
+        set(mojo, "jsOutputCharsetName", "UTF-8");
+        set(mojo, "javaOutputCharsetName", "UTF-8");
+        set(mojo, "fingerprintMode", FingerprintMode.CONTENT);
+        set(mojo, "execution", new MojoExecution(new MojoDescriptor(), "test"));
+        set(mojo, "buildDirectory", basedir.resolve("target").toFile());
+        set(mojo, "markersDirectory", basedir.resolve("target/soy-maven-plugin-markers").toFile());
+        return mojo;
+    }
+
+    private static void execute(CompileMojo mojo) throws Exception {
+        mojo.execute();
+    }
+
+    private void writeTemplate(String path, String namespace, String text) throws IOException {
+        write(basedir.resolve("src/main/soy").resolve(path),
+                "{namespace " + namespace + "}\n\n/** */\n{template .t}\n" + text + "\n{/template}\n");
+    }
+
+    private void writeTranslation(String locale, String text) throws IOException {
+
+        final SoyFileSet.Builder builder = SoyFileSet.builder();
+        builder.add(basedir.resolve("src/main/soy/a.soy").toFile());
+        final SoyMsg message = builder.build().extractMsgs().iterator().next();
+
+        write(basedir.resolve("src/main/i18n").resolve(locale + ".xlf"),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<xliff version=\"1.2\" xmlns=\"urn:oasis:names:tc:xliff:document:1.2\">\n" +
+                "  <file original=\"SoyMsgBundle\" datatype=\"x-soy-msg\" xml:space=\"preserve\"" +
+                " source-language=\"en\" target-language=\"" + locale + "\">\n" +
+                "    <body>\n" +
+                (text == null ? "" : "      <trans-unit id=\"" + message.getId() + "\" datatype=\"html\">\n" +
+                                     "        <target>" + text + "</target>\n" +
+                                     "      </trans-unit>\n") +
+                "    </body>\n  </file>\n</xliff>\n");
+    }
+
+    private static String getNamespace(Path classFile) throws IOException {
+        final String source = read(classFile);
+        final Matcher matcher = Pattern.compile("__NAMESPACE__ = \"([^\"]*)\"").matcher(source);
+        assertTrue(matcher.find());
+        return matcher.group(1);
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static Set<String> list(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).collect(Collectors.toSet());
+        }
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void set(CompileMojo mojo, String name, Object value) throws IllegalAccessException {
+        FieldUtils.writeField(mojo, name, value, true);
+    }
+}
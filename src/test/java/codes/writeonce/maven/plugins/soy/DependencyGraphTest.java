@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class DependencyGraphTest {
+
+    private static final Path A = Paths.get("a.soy");
+    private static final Path B = Paths.get("b.soy");
+    private static final Path C = Paths.get("c.soy");
+    private static final Path D = Paths.get("d.soy");
+
+    private final DependencyGraph graph = new DependencyGraph(getFiles());
+
+    private static Map<Path, SoyFileDependencies> getFiles() {
+        final Map<Path, SoyFileDependencies> files = new LinkedHashMap<>();
+        files.put(A, SoyFileDependencies.parse("{namespace a}{template .t}{call b.t/}{delcall x.y/}{/template}"));
+        files.put(B, SoyFileDependencies.parse("{namespace b}{template .t}{call c.t/}{/template}"));
+        files.put(C, SoyFileDependencies.parse("{namespace c}{template .t}{/template}"));
+        files.put(D, SoyFileDependencies.parse("{namespace d}{deltemplate x.y}{/deltemplate}"));
+        return files;
+    }
+
+    @Test
+    public void followsCallsAndDelegateCalls() {
+        assertEquals(new HashSet<>(Arrays.asList(B, D)), graph.getDirectDependencies(A));
+        assertEquals(Collections.singleton(A), graph.getDirectDependents(D));
+    }
+
+    @Test
+    public void closesOverTransitiveCalls() {
+        assertEquals(new HashSet<>(Arrays.asList(A, B, C, D)), graph.getDependenciesClosure(Collections.singleton(A)));
+        assertEquals(new HashSet<>(Arrays.asList(A, B, C)), graph.getDependentsClosure(Collections.singleton(C)));
+        assertEquals(Collections.singleton(D), graph.getDependenciesClosure(Collections.singleton(D)));
+    }
+
+    @Test
+    public void resolvesEntryPoints() {
+        assertEquals(Collections.singleton(B), graph.getEntryPointFiles("b"));
+        assertEquals(Collections.singleton(B), graph.getEntryPointFiles("b.t"));
+        assertEquals(Collections.emptySet(), graph.getEntryPointFiles("e"));
+        assertEquals(Collections.emptySet(), graph.getEntryPointFiles("e.t"));
+    }
+
+    @Test
+    public void resolvesNestedNamespacesAsNamespaces() {
+        final Path parent = Paths.get("parent.soy");
+        final Path child = Paths.get("child.soy");
+        final Map<Path, SoyFileDependencies> files = new LinkedHashMap<>();
+        files.put(parent, SoyFileDependencies.parse("{namespace p}{template .t}{/template}"));
+        files.put(child, SoyFileDependencies.parse("{namespace p.t}{template .u}{/template}"));
+        final DependencyGraph nested = new DependencyGraph(files);
+
+        assertEquals(Collections.singleton(child), nested.getEntryPointFiles("p.t"));
+        assertEquals(Collections.singleton(child), nested.getEntryPointFiles("p.t.u"));
+        assertEquals(Collections.singleton(parent), nested.getEntryPointFiles("p"));
+    }
+
+    @Test
+    public void reachesCalleesOfEntryPoints() {
+        assertEquals(new HashSet<>(Arrays.asList(B, C)), graph.getDependenciesClosure(graph.getEntryPointFiles("b.t")));
+        assertEquals(new HashSet<>(Arrays.asList(A, B, C, D)),
+                graph.getDependenciesClosure(graph.getEntryPointFiles("a")));
+    }
+
+    @Test
+    public void keepsTheGivenOrder() {
+        assertEquals(Arrays.asList(A, C), DependencyGraph.ordered(new HashSet<>(Arrays.asList(C, A)),
+                Arrays.asList(A, B, C, D)));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class FileTreeSnapshotTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void listsFilesInSortedOrder() throws IOException {
+
+        final Path root = folder.getRoot().toPath();
+        Files.createDirectories(root.resolve("b/c"));
+        Files.createFile(root.resolve("b/c/d.soy"));
+        Files.createFile(root.resolve("a.soy"));
+        Files.createFile(root.resolve("a.txt"));
+
+        final FileTreeSnapshot snapshot = FileTreeSnapshot.scan(root);
+
+        assertEquals(Arrays.asList(Paths.get("a.soy"), Paths.get("b/c/d.soy")), snapshot.getFiles(".soy"));
+        assertEquals(3, snapshot.getFiles().size());
+        assertEquals(Collections.emptyList(), snapshot.getLoops());
+    }
+
+    @Test
+    public void reportsLinksBackToAnAncestorInsteadOfFollowingThem() throws IOException {
+
+        final Path root = folder.getRoot().toPath();
+        Files.createDirectories(root.resolve("a/b"));
+        Files.createFile(root.resolve("a/b/c.soy"));
+        Files.createSymbolicLink(root.resolve("a/b/up"), root.resolve("a"));
+        Files.createSymbolicLink(root.resolve("root"), root);
+
+        final FileTreeSnapshot snapshot = FileTreeSnapshot.scan(root);
+
+        assertEquals(Collections.singletonList(Paths.get("a/b/c.soy")), snapshot.getFiles());
+        assertEquals(Arrays.asList(Paths.get("a/b/up"), Paths.get("root")), snapshot.getLoops());
+    }
+
+    @Test
+    public void followsLinksToOtherDirectories() throws IOException {
+
+        final Path root = folder.newFolder("root").toPath();
+        final Path shared = folder.newFolder("shared").toPath();
+        Files.createFile(shared.resolve("s.soy"));
+        Files.createSymbolicLink(root.resolve("first"), shared);
+        Files.createSymbolicLink(root.resolve("second"), shared);
+
+        final FileTreeSnapshot snapshot = FileTreeSnapshot.scan(root);
+
+        assertEquals(Arrays.asList(Paths.get("first/s.soy"), Paths.get("second/s.soy")), snapshot.getFiles());
+        assertEquals(Collections.emptyList(), snapshot.getLoops());
+    }
+}
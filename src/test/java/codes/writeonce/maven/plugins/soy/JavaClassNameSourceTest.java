@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import com.google.template.soy.SoyFileSet;
+import com.google.template.soy.SoyFileSetAccessor;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JavaClassNameSourceTest {
+
+    @Test
+    public void namesClassesAfterFileNames() {
+        assertEquals("FooBarSoyInfo", JavaClassNameSource.SOY_FILE_NAME.getClassName("foo_bar.soy", "a.b"));
+        assertEquals("HtmlPageSoyInfo", JavaClassNameSource.SOY_FILE_NAME.getClassName("HTML-page.SOY", "a.b"));
+        assertEquals("MyTemplatesSoyInfo",
+                JavaClassNameSource.SOY_NAMESPACE_LAST_PART.getClassName("a.soy", "a.b.myTemplates"));
+        assertEquals("FileSoyInfo", JavaClassNameSource.GENERIC.getClassName("a.soy", "a.b"));
+    }
+
+    @Test
+    public void matchesSoy() {
+        for (final JavaClassNameSource source : new JavaClassNameSource[]{JavaClassNameSource.SOY_FILE_NAME,
+                JavaClassNameSource.SOY_NAMESPACE_LAST_PART}) {
+            final SoyFileSet.Builder builder = SoyFileSet.builder();
+            builder.add("{namespace a.b.myTemplates}\n/** */\n{template .t}{/template}\n", "dir/foo_bar.soy");
+            builder.add("{namespace c.URL_helpers}\n/** */\n{template .t}{/template}\n", "HTMLPage.soy");
+            builder.add("{namespace simple}\n/** */\n{template .t}{/template}\n", "Simple.soy");
+            final Set<String> classFileNames =
+                    SoyFileSetAccessor.generateParseInfo(builder.build(), "p", source.getValue()).keySet();
+
+            assertEquals(3, classFileNames.size());
+            assertTrue(classFileNames.toString(),
+                    classFileNames.contains(source.getClassName("foo_bar.soy", "a.b.myTemplates") + ".java"));
+            assertTrue(classFileNames.toString(),
+                    classFileNames.contains(source.getClassName("HTMLPage.soy", "c.URL_helpers") + ".java"));
+            assertTrue(classFileNames.toString(),
+                    classFileNames.contains(source.getClassName("Simple.soy", "simple") + ".java"));
+        }
+    }
+}
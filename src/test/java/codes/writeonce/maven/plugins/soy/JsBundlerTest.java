@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JsBundlerTest {
+
+    private static final ByteBuffer SEPARATOR = ByteBuffer.wrap("\n".getBytes(StandardCharsets.UTF_8));
+
+    @Test
+    public void splitsBundlesAtMaximumSize() throws NoSuchAlgorithmException {
+
+        final JsBundler bundler = new JsBundler(10, SEPARATOR);
+        bundler.add("a", Paths.get("a.soy"), bytes("aaaa"));
+        bundler.add("b", Paths.get("b.soy"), bytes("bbbb"));
+        bundler.add("c", Paths.get("c.soy"), bytes("cccc"));
+        bundler.add("d", Paths.get("d.soy"), bytes("dddddddddddd"));
+
+        final List<String> contents = getContents(bundler.getBundles());
+        assertEquals(3, contents.size());
+        assertEquals("aaaa\nbbbb", contents.get(0));
+        assertEquals("cccc", contents.get(1));
+        assertEquals("dddddddddddd", contents.get(2));
+    }
+
+    @Test
+    public void keepsSingleBundleWithoutMaximumSize() throws NoSuchAlgorithmException {
+
+        final JsBundler bundler = new JsBundler(0, SEPARATOR);
+        bundler.add("a", Paths.get("a.soy"), bytes("aaaa"));
+        bundler.add("b", Paths.get("b.soy"), bytes("bbbb"));
+
+        final Map<String, ByteBuffer> bundles = bundler.getBundles();
+        assertEquals(1, bundles.size());
+        final String name = bundles.keySet().iterator().next();
+        assertTrue(name, name.matches("soy\\.[0-9a-f]{16}\\.js"));
+        assertEquals("aaaa\nbbbb", getContents(bundles).get(0));
+    }
+
+    @Test
+    public void recordsTemplateRangesInManifest() throws IOException, NoSuchAlgorithmException {
+
+        final JsBundler bundler = new JsBundler(10, SEPARATOR);
+        bundler.add("a", Paths.get("x/a.soy"), bytes("aaaa"));
+        bundler.add("b", Paths.get("x/b.soy"), bytes("bbbb"));
+        bundler.add("c", Paths.get("c.soy"), bytes("cc"));
+
+        final Map<String, ByteBuffer> bundles = bundler.getBundles();
+        final List<String> names = new ArrayList<>(bundles.keySet());
+        final String manifest = bundler.getManifest();
+
+        assertTrue(manifest, manifest.contains(template("b", "x/b.soy", names.get(0), 5, 4)));
+        assertTrue(manifest, manifest.contains(template("a", "x/a.soy", names.get(0), 0, 4)));
+        assertTrue(manifest, manifest.contains(template("c", "c.soy", names.get(1), 0, 2)));
+        assertTrue(manifest, manifest.contains("\"file\": \"" + names.get(0) + "\",\n      \"size\": 9,"));
+        assertTrue(manifest, manifest.contains("\"file\": \"" + names.get(1) + "\",\n      \"size\": 2,"));
+
+        final String first = getContents(bundles).get(0);
+        assertEquals("bbbb", first.substring(5, 5 + 4));
+    }
+
+    private static String template(String namespace, String file, String bundle, long offset, long length) {
+        return "\"namespace\": \"" + namespace + "\",\n" +
+               "      \"file\": \"" + file + "\",\n" +
+               "      \"bundle\": \"" + bundle + "\",\n" +
+               "      \"offset\": " + offset + ",\n" +
+               "      \"length\": " + length + ",";
+    }
+
+    private static List<String> getContents(Map<String, ByteBuffer> bundles) {
+        final List<String> contents = new ArrayList<>();
+        for (final ByteBuffer buffer : bundles.values()) {
+            contents.add(StandardCharsets.UTF_8.decode(buffer.duplicate()).toString());
+        }
+        return contents;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JsCompactorTest {
+
+    @Test
+    public void removesCommentsAndIndentation() throws IOException {
+        final String source = "// header\n" +
+                              "/**\n" +
+                              " * @param {string} a\n" +
+                              " */\n" +
+                              "function f(a) {\n" +
+                              "    var   b = a; // trailing\n" +
+                              "\n" +
+                              "    return /* inline */ b\n" +
+                              "}\n";
+        assertEquals("function f(a) {\nvar b = a;\nreturn b\n}\n", compact(source));
+    }
+
+    @Test
+    public void keepsLiterals() throws IOException {
+        final String source = "var s = 'a // b  /* c */';\n" +
+                              "var t = \"it's\";\n" +
+                              "var r = /\\/\\/[/*]/g;\n" +
+                              "var d = x / 2 / y;\n";
+        assertEquals(source, compact(source));
+    }
+
+    @Test
+    public void dividesAfterIncrementAndDecrement() throws IOException {
+        assertEquals("var j = i++ / 2\nvar k = i-- / 2\n",
+                compact("var j = i++ / 2 // half\nvar k = i-- / 2 // half\n"));
+        final String source = "var r = a + /\\/\\//.source - /\\/\\//.source;\n";
+        assertEquals(source, compact(source));
+    }
+
+    @Test
+    public void removesTheSourceMappingUrl() throws IOException {
+        final String[] result = JsCompactor.compact("var a;\n", "a.js", "a.src.js", true);
+        assertEquals("var a;\n//# sourceMappingURL=a.js.map\n", result[0]);
+        assertEquals("var a;\n", JsCompactor.removeSourceMappingUrl(result[0]));
+        assertEquals("var a;\n", JsCompactor.removeSourceMappingUrl("var a;\n"));
+    }
+
+    @Test
+    public void keepsLicenseComments() throws IOException {
+        assertEquals("/*! keep */\nvar a;\n", compact("/*! keep */\n/* drop */\nvar a;\n"));
+        assertEquals("/* @license MIT */\nvar a;\n", compact("  /* @license MIT */\nvar a;\n"));
+    }
+
+    @Test
+    public void givesUpOnUnterminatedTokens() throws IOException {
+        assertNull(JsCompactor.compact("var s = 'a;\n", "a.js", "a.src.js", false));
+        assertNull(JsCompactor.compact("/* open\n", "a.js", "a.src.js", false));
+    }
+
+    @Test
+    public void mapsEveryLineToItsSource() throws IOException {
+        final String[] compacted = JsCompactor.compact("// c\n  var a;\n\n    var b;\n", "a.js", "a.src.js", true);
+        assertEquals("var a;\nvar b;\n//# sourceMappingURL=a.js.map\n", compacted[0]);
+        assertTrue(compacted[1], compacted[1].contains("\"mappings\": \"AACE;AAEE\""));
+        assertTrue(compacted[1], compacted[1].contains("\"a.src.js\""));
+    }
+
+    private static String compact(String source) throws IOException {
+        return JsCompactor.compact(source, "a.js", "a.src.js", false)[0];
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class OutputCacheTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restoresStoredTrees() throws IOException {
+
+        final Path root = folder.getRoot().toPath();
+        final Path js = write(root.resolve("js/a/b.soy.js"), "b");
+        final Path manifest = write(root.resolve("manifest"), "manifest");
+
+        final OutputCache cache = new OutputCache(root.resolve("cache"), Long.MAX_VALUE);
+        assertNull(cache.find("key"));
+        cache.store("key", manifest, Collections.singletonMap("js", root.resolve("js")));
+
+        final Path entry = cache.find("key");
+        assertNotNull(entry);
+        assertEquals("manifest", read(OutputCache.getManifestFile(entry)));
+
+        final Path target = root.resolve("restored");
+        final List<Path> files = OutputCache.restore(entry, "js", target);
+        assertEquals(Collections.singletonList(Paths.get("a/b.soy.js")), files);
+        assertEquals("b", read(target.resolve("a/b.soy.js")));
+
+        Files.delete(js);
+        write(js, "changed");
+        assertEquals("b", read(OutputCache.getManifestFile(entry).resolveSibling("js/a/b.soy.js")));
+    }
+
+    @Test
+    public void keepsExistingEntry() throws IOException {
+
+        final Path root = folder.getRoot().toPath();
+        write(root.resolve("js/a.soy.js"), "first");
+        final Path manifest = write(root.resolve("manifest"), "manifest");
+
+        final OutputCache cache = new OutputCache(root.resolve("cache"), Long.MAX_VALUE);
+        cache.store("key", manifest, Collections.singletonMap("js", root.resolve("js")));
+        Files.delete(root.resolve("js/a.soy.js"));
+        write(root.resolve("js/a.soy.js"), "second");
+        cache.store("key", manifest, Collections.singletonMap("js", root.resolve("js")));
+
+        final Path target = root.resolve("restored");
+        OutputCache.restore(cache.find("key"), "js", target);
+        assertEquals("first", read(target.resolve("a.soy.js")));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries() throws IOException {
+
+        final Path root = folder.getRoot().toPath();
+        write(root.resolve("js/a.soy.js"), "0123456789");
+        final Path manifest = write(root.resolve("manifest"), "m");
+
+        final OutputCache cache = new OutputCache(root.resolve("cache"), 15);
+        cache.store("old", manifest, Collections.singletonMap("js", root.resolve("js")));
+        cache.store("new", manifest, Collections.singletonMap("js", root.resolve("js")));
+        Files.setLastModifiedTime(root.resolve("cache/old"), FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(root.resolve("cache/new"), FileTime.fromMillis(2000));
+
+        cache.evict();
+
+        assertFalse(Files.exists(root.resolve("cache/old")));
+        assertNotNull(cache.find("new"));
+    }
+
+    private static Path write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
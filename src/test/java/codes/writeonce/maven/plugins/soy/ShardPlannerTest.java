@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShardPlannerTest {
+
+    private static final Path A = Paths.get("a.soy");
+    private static final Path B = Paths.get("b.soy");
+    private static final Path C = Paths.get("c.soy");
+    private static final Path D = Paths.get("d.soy");
+    private static final Path E = Paths.get("e.soy");
+
+    private final DependencyGraph graph = new DependencyGraph(getFiles());
+
+    private static Map<Path, SoyFileDependencies> getFiles() {
+        final Map<Path, SoyFileDependencies> files = new LinkedHashMap<>();
+        files.put(A, SoyFileDependencies.parse("{namespace a}{template .t}{call c.t/}{/template}"));
+        files.put(B, SoyFileDependencies.parse("{namespace b}{template .t}{/template}"));
+        files.put(C, SoyFileDependencies.parse("{namespace c}{template .t}{/template}"));
+        files.put(D, SoyFileDependencies.parse("{namespace d}{template .t}{delcall x.y/}{/template}"));
+        files.put(E, SoyFileDependencies.parse("{namespace e}{deltemplate x.y}{/deltemplate}"));
+        return files;
+    }
+
+    @Test
+    public void keepsConnectedFilesTogether() {
+        assertEquals(Arrays.asList(Arrays.asList(A, C, B), Arrays.asList(D, E)),
+                ShardPlanner.split(graph, Arrays.asList(A, B, C, D, E), 3));
+    }
+
+    @Test
+    public void cutsGroupsLargerThanTheBound() {
+        assertEquals(Arrays.asList(Arrays.asList(A), Arrays.asList(C), Arrays.asList(B), Arrays.asList(D),
+                Arrays.asList(E)), ShardPlanner.split(graph, Arrays.asList(A, B, C, D, E), 1));
+    }
+
+    @Test
+    public void ignoresFilesNotGiven() {
+        final List<List<Path>> shards = ShardPlanner.split(graph, Arrays.asList(A, B, D), 2);
+        assertEquals(Arrays.asList(Arrays.asList(A, B), Collections.singletonList(D)), shards);
+    }
+
+    @Test
+    public void keepsEverythingInOneShardWithinTheBound() {
+        assertEquals(Collections.singletonList(Arrays.asList(A, C, B, D, E)),
+                ShardPlanner.split(graph, Arrays.asList(A, B, C, D, E), 5));
+    }
+}
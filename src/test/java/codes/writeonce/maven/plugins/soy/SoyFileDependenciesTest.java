@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class SoyFileDependenciesTest {
+
+    @Test
+    public void findsNamespacesAndDelegates() {
+
+        final SoyFileDependencies dependencies = SoyFileDependencies.parse(
+                "{namespace app.page}\n" +
+                "{alias app.widgets}\n" +
+                "{alias app.util.format as fmt}\n" +
+                "{template .main}{call .local/}{call widgets.button/}{call fmt.date/}{call other.ns.t/}" +
+                "{delcall app.slot/}{/template}\n" +
+                "{deltemplate app.slot}{/deltemplate}\n");
+
+        assertEquals("app.page", dependencies.getNamespace());
+        assertEquals(new HashSet<>(Arrays.asList("app.widgets", "app.util.format", "other.ns")),
+                dependencies.getCalledNamespaces());
+        assertEquals(Collections.singleton("app.slot"), dependencies.getDelcalls());
+        assertEquals(Collections.singleton("app.slot"), dependencies.getDeltemplates());
+    }
+
+    @Test
+    public void ignoresCallsIntoItsOwnNamespace() {
+        final SoyFileDependencies dependencies =
+                SoyFileDependencies.parse("{namespace a}{template .t}{call a.u/}{/template}");
+        assertEquals(Collections.emptySet(), dependencies.getCalledNamespaces());
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SoyFileSetCacheTest {
+
+    @Test
+    public void keepsTheLargestBoundAndEvictsLeastRecentlyUsed() {
+
+        final SoyFileSetCache cache = SoyFileSetCache.getInstance();
+        cache.clear();
+        cache.requireMaximumWeight(100);
+        cache.requireMaximumWeight(10);
+        assertEquals(100, cache.getMaximumWeight());
+
+        cache.put("first", "js", "a", 40);
+        cache.put("second", "js", "b", 40);
+        assertEquals("a", cache.get("first", "js"));
+        cache.put("third", "js", "c", 40);
+
+        assertNull(cache.get("second", "js"));
+        assertEquals("a", cache.get("first", "js"));
+        assertEquals("c", cache.get("third", "js"));
+
+        cache.clear();
+    }
+
+    @Test
+    public void keepsNothingWhenDisabled() {
+
+        final SoyFileSetCache cache = SoyFileSetCache.getDisabledInstance();
+        SoyFileSetCache.getInstance().requireMaximumWeight(100);
+
+        cache.put("first", "js", "a", 0);
+        assertNull(cache.get("first", "js"));
+
+        SoyFileSetCache.getInstance().clear();
+    }
+}
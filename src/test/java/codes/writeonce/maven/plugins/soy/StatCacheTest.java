@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class StatCacheTest {
+
+    private static final FileTime OLD_TIME = FileTime.fromMillis(1000000000000L);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fingerprintsContent() throws IOException {
+
+        final Path root = folder.getRoot().toPath();
+        final StatCache cache = StatCache.read(root.resolve("cache"));
+
+        final Path first = write(root.resolve("a.soy"), "first", OLD_TIME);
+        final Path second = write(root.resolve("b.soy"), "first", OLD_TIME);
+        assertEquals(cache.getFingerprint(first), cache.getFingerprint(second));
+
+        write(second, "other", OLD_TIME);
+        assertNotEquals(cache.getFingerprint(first), cache.getFingerprint(second));
+    }
+
+    @Test
+    public void trustsUnchangedStatOfOldFiles() throws IOException {
+
+        final Path root = folder.getRoot().toPath();
+        final Path cacheFile = root.resolve("cache");
+        final Path file = write(root.resolve("a.soy"), "first", OLD_TIME);
+
+        final StatCache cache = StatCache.read(cacheFile);
+        final String fingerprint = cache.getFingerprint(file);
+        cache.write(cacheFile);
+
+        // same size and modification time, so the content is not read again
+        write(file, "other", OLD_TIME);
+        assertEquals(fingerprint, StatCache.read(cacheFile).getFingerprint(file));
+    }
+
+    @Test
+    public void hashesRecentlyModifiedFilesAgain() throws IOException {
+
+        final Path root = folder.getRoot().toPath();
+        final Path cacheFile = root.resolve("cache");
+        final FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        final Path file = write(root.resolve("a.soy"), "first", now);
+
+        final StatCache cache = StatCache.read(cacheFile);
+        final String fingerprint = cache.getFingerprint(file);
+        cache.write(cacheFile);
+
+        write(file, "other", now);
+        assertNotEquals(fingerprint, StatCache.read(cacheFile).getFingerprint(file));
+    }
+
+    private static Path write(Path file, String content, FileTime modifiedTime) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, modifiedTime);
+        return file;
+    }
+}
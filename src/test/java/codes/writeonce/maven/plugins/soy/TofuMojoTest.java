@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+import com.google.template.soy.SoyModule;
+import com.google.template.soy.jbcsrc.api.SoySauce;
+import com.google.template.soy.jbcsrc.api.SoySauceImpl;
+import com.google.template.soy.jbcsrc.shared.CompiledTemplates;
+import com.google.template.soy.shared.restricted.SoyFunction;
+import com.google.template.soy.shared.restricted.SoyPrintDirective;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TofuMojoTest {
+
+    private static final Log SILENT_LOG = (Log) Proxy.newProxyInstance(Log.class.getClassLoader(),
+            new Class<?>[]{Log.class}, (proxy, method, args) -> method.getReturnType() == boolean.class ? false : null);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path basedir;
+
+    private Path resources;
+
+    private Path loader;
+
+    @Before
+    public void setUp() throws IOException {
+        basedir = folder.getRoot().toPath();
+        resources = basedir.resolve("target/generated-resources/soy");
+        loader = basedir.resolve("target/generated-sources/soy-tofu/test/templates/SoyTemplates.java");
+        write("a.soy", "{namespace a}\n\n/** @param name */\n{template .t}\n" +
+                       "Hello {$name} {call b.t/} {delcall x.y/}\n{/template}\n");
+        write("b.soy", "{namespace b}\n\n/** */\n{template .t}\n{GREETING}\n{/template}\n");
+        write("d.soy", "{namespace d}\n\n/** */\n{deltemplate x.y}\nD\n{/deltemplate}\n");
+    }
+
+    @Test
+    public void precompilesTemplatesToClasses() throws Exception {
+
+        newMojo(true).execute();
+
+        final String loaderSource = read(loader);
+        assertTrue(loaderSource.contains("public static SoySauce load()"));
+        final Matcher deltemplate = Pattern.compile("\"(d\\.[^\"]+)\"").matcher(loaderSource);
+        assertTrue(deltemplate.find());
+        assertFalse(Files.exists(resources.resolve("soy/templates/a.soy")));
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{resources.toUri().toURL()},
+                getClass().getClassLoader())) {
+            final Injector injector = Guice.createInjector(new SoyModule());
+            final SoySauce sauce = injector.getInstance(SoySauceImpl.Factory.class).create(
+                    new CompiledTemplates(ImmutableSet.of(deltemplate.group(1)), classLoader),
+                    injector.getInstance(Key.get(new TypeLiteral<ImmutableMap<String, ? extends SoyFunction>>() {})),
+                    injector.getInstance(
+                            Key.get(new TypeLiteral<ImmutableMap<String, ? extends SoyPrintDirective>>() {})));
+            assertEquals("Hello X Hi D",
+                    sauce.renderTemplate("a.t").setData(ImmutableMap.of("name", "X")).render().get());
+        }
+    }
+
+    @Test
+    public void packagesSourcesWithoutPrecompilation() throws Exception {
+
+        newMojo(true).execute();
+        newMojo(false).execute();
+
+        assertTrue(Files.isRegularFile(resources.resolve("soy/templates/a.soy")));
+        assertTrue(read(resources.resolve("soy/templates.index")).contains("templates/a.soy"));
+        assertTrue(read(loader).contains("public static SoyTofu compile()"));
+        assertFalse(Files.exists(resources.resolve("com/google/template/soy/jbcsrc/gen/a/t.class")));
+    }
+
+    private TofuMojo newMojo(boolean precompile) throws Exception {
+
+        final MavenProject project = new MavenProject();
+        project.setFile(basedir.resolve("pom.xml").toFile());
+
+        final Properties globals = new Properties();
+        globals.setProperty("GREETING", "Hi");
+
+        final TofuMojo mojo = new TofuMojo();
+        mojo.setLog(SILENT_LOG);
+        set(mojo, "project", project);
+        set(mojo, "sources", basedir.resolve("src/main/soy").toFile());
+        set(mojo, "compileTimeGlobals", globals);
+        set(mojo, "cacheSize", 0);
+        set(mojo, "libraryClassifier", "soy");
+        set(mojo, "librariesDirectory", basedir.resolve("target/soy-libraries").toFile());
+        set(mojo, "resourcesDirectory", resources.toFile());
+        set(mojo, "resourcePath", "soy");
+        set(mojo, "loaderOutputDirectory", basedir.resolve("target/generated-sources/soy-tofu").toFile());
+        set(mojo, "javaPackage", "test.templates");
+        set(mojo, "loaderClassName", "SoyTemplates");
+        set(mojo, "markersDirectory", basedir.resolve("target/soy-maven-plugin-markers").toFile());
+        set(mojo, "execution", new MojoExecution(new MojoDescriptor(), "test"));
+        set(mojo, "precompile", precompile);
+        return mojo;
+    }
+
+    private void write(String path, String content) throws IOException {
+        final Path file = basedir.resolve("src/main/soy").resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static void set(TofuMojo mojo, String name, Object value) throws IllegalAccessException {
+        FieldUtils.writeField(mojo, name, value, true);
+    }
+}
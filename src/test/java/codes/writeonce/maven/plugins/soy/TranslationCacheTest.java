@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import com.google.template.soy.msgs.SoyMsgBundle;
+import com.google.template.soy.msgs.restricted.SoyMsg;
+import com.google.template.soy.msgs.restricted.SoyMsgBundleImpl;
+import com.google.template.soy.msgs.restricted.SoyMsgPart;
+import com.google.template.soy.msgs.restricted.SoyMsgPlaceholderPart;
+import com.google.template.soy.msgs.restricted.SoyMsgRawTextPart;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TranslationCacheTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadsWhatWasStored() throws IOException {
+
+        final TranslationCache cache = new TranslationCache(folder.getRoot().toPath().resolve("cache"));
+        final String key = TranslationCache.getKey(Paths.get("ru.xlf"), "fingerprint");
+        final SoyMsg message = new SoyMsg(42, "ru", false, Arrays.<SoyMsgPart>asList(
+                SoyMsgRawTextPart.of("Privet, "), new SoyMsgPlaceholderPart("NAME")));
+
+        assertTrue(cache.store(key, new SoyMsgBundleImpl("ru", Collections.singletonList(message))));
+
+        final SoyMsgBundle loaded = cache.load(key);
+        assertEquals("ru", loaded.getLocaleString());
+        assertEquals(message.getParts(), loaded.getMsg(42).getParts());
+    }
+
+    @Test
+    public void keysTranslationFilesByPath() throws IOException {
+
+        assertNotEquals(TranslationCache.getKey(Paths.get("ru.xlf"), "fingerprint"),
+                TranslationCache.getKey(Paths.get("de.xlf"), "fingerprint"));
+
+        final TranslationCache cache = new TranslationCache(folder.getRoot().toPath().resolve("cache"));
+        final String key = TranslationCache.getKey(Paths.get("ru.xlf"), "fingerprint");
+        cache.store(key, new SoyMsgBundleImpl("ru", Collections.<SoyMsg>emptyList()));
+        assertNull(cache.load(TranslationCache.getKey(Paths.get("de.xlf"), "fingerprint")));
+
+        cache.retain(Collections.<String>emptyList());
+        assertNull(cache.load(key));
+    }
+
+    @Test
+    public void leavesNoTemporaryFiles() throws IOException {
+
+        final Path directory = folder.getRoot().toPath().resolve("cache");
+        final TranslationCache cache = new TranslationCache(directory);
+        final String key = TranslationCache.getKey(Paths.get("ru.xlf"), "fingerprint");
+        cache.store(key, new SoyMsgBundleImpl("ru", Collections.<SoyMsg>emptyList()));
+        Files.createFile(directory.resolve("." + key + ".msgs.1234" + Utils.TEMP_SUFFIX));
+
+        cache.retain(Collections.singletonList(key));
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(Collections.singletonList(key + ".msgs"),
+                    files.map(file -> file.getFileName().toString()).collect(Collectors.toList()));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016, Alexey Romenskiy, All rights reserved.
+ *
+ * This file is part of soy-maven-plugin
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+
+package codes.writeonce.maven.plugins.soy;
+
+import com.google.template.soy.SoyFileSet;
+import com.google.template.soy.msgs.restricted.SoyMsg;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class XliffFileTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsExistingTranslations() throws IOException {
+
+        final List<ExtractedMessage> messages = Arrays.asList(
+                new ExtractedMessage(1, null, "greeting", "html", "Hello <x id=\"NAME\"/> &amp; co"),
+                new ExtractedMessage(2, "verb", "button", null, "Save"));
+        final Map<String, String> targets = new HashMap<>();
+        targets.put("1", "Privet <x id=\"NAME\"/> &amp; co");
+        targets.put("3", "Removed");
+
+        final Path file = folder.getRoot().toPath().resolve("ru.xlf");
+        Files.write(file, XliffFile.toString("en", "ru", messages, targets).getBytes(StandardCharsets.UTF_8));
+
+        final Map<String, String> expected = new HashMap<>();
+        expected.put("1", "Privet <x id=\"NAME\"/> &amp; co");
+        assertEquals(expected, XliffFile.readTargets(file));
+    }
+
+    @Test
+    public void writesPluralAndSelectMessagesInIcuSyntax() throws IOException {
+
+        final List<ExtractedMessage> messages = extract(
+                "{msg desc=\"items\"}{plural $n}{case 1}One item{default}{$n} items{/plural}{/msg}",
+                "{msg desc=\"pronoun\"}{select $g}{case 'f'}She{default}They{/select}{/msg}");
+
+        final Map<String, String> sources = new HashMap<>();
+        for (final ExtractedMessage message : messages) {
+            sources.put(message.getDescription(), message.getSource());
+        }
+        assertEquals("{N_1,plural,=1{One item}other{<x id=\"N_2\"/> items}}", sources.get("items"));
+        assertEquals("{G,select,f{She}other{They}}", sources.get("pronoun"));
+    }
+
+    @Test
+    public void comparesMessagesByValue() throws IOException {
+
+        final List<ExtractedMessage> first = extract("{msg desc=\"a\"}Text{/msg}");
+        final List<ExtractedMessage> second = extract("{msg desc=\"a\"}Text{/msg}");
+        assertEquals(first, second);
+        assertEquals(first.get(0).hashCode(), second.get(0).hashCode());
+        assertNotEquals(first, extract("{msg desc=\"b\"}Text{/msg}"));
+    }
+
+    @Test
+    public void cachesMessagesPerFile() throws IOException {
+
+        final Path cacheFile = folder.getRoot().toPath().resolve("messages.cache");
+        final List<ExtractedMessage> messages = extract("{msg desc=\"a\"}Text{/msg}");
+        final MessageCache cache = new MessageCache("key");
+        cache.put(folder.getRoot().toPath().resolve("a.soy"), "fingerprint", messages);
+        cache.write(cacheFile);
+
+        final MessageCache read = MessageCache.read(cacheFile, "key");
+        assertEquals(messages, read.get(folder.getRoot().toPath().resolve("a.soy"), "fingerprint"));
+        assertEquals(null, read.get(folder.getRoot().toPath().resolve("a.soy"), "other"));
+        assertEquals(null, MessageCache.read(cacheFile, "other").get(
+                folder.getRoot().toPath().resolve("a.soy"), "fingerprint"));
+    }
+
+    private static List<ExtractedMessage> extract(String... messages) throws IOException {
+
+        final StringBuilder source = new StringBuilder("{namespace test}\n/**\n * @param n\n * @param g\n */\n");
+        source.append("{template .t}\n");
+        for (final String message : messages) {
+            source.append(message).append('\n');
+        }
+        source.append("{/template}\n");
+
+        final List<ExtractedMessage> result = new ArrayList<>();
+        for (final SoyMsg message : SoyFileSet.builder().add(source, "test.soy").build().extractMsgs()) {
+            result.add(XliffFile.toExtractedMessage(message));
+        }
+        Collections.sort(result, (a, b) -> Long.compare(a.getId(), b.getId()));
+        assertTrue(!result.isEmpty());
+        return result;
+    }
+}